@@ -1,8 +1,8 @@
 package gui;
 
 import java.awt.Color;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import math.Projection;
 import scope.LatLon;
 
 /*
@@ -21,22 +21,28 @@ import scope.LatLon;
  *
  * The TYPE command is pen-down, the last coordinate (before the -1) is pen-up.
  * A line is drawn between each coordinate.
+ *
+ * The map never moves, so each coordinate is kept as its unit vector from the
+ * earth's center, packed three to a point, and the trig is only done once,
+ * when the map is loaded. The projection then only has to rotate them.
  */
 public final class MapVector {
 
     private final Color color;
-    private final List<LatLon> coordinates;
+    private double[] vectors;           // x, y, z of each point
+    private int count;
 
     public MapVector(Color color) {
         this.color = color;
-        this.coordinates = new ArrayList<>();
+        this.vectors = new double[3 * 16];
+        this.count = 0;
     }
 
     public Color getVectorColor() {
         return this.color;
     }
 
-    public boolean addCoordinate(LatLon coordinate) {
+    public synchronized boolean addCoordinate(LatLon coordinate) {
         // x is longitude, y is latitude
 
         if (coordinate.lon < -180.0 || coordinate.lon > 180.0 || coordinate.lat < -90.0 || coordinate.lat > 90.0) {
@@ -44,24 +50,32 @@ public final class MapVector {
             return false;
         }
 
-        synchronized (coordinates) {
-            if (this.coordinates.add(coordinate) == false) {
-                System.err.println("MapVector::addCoordinate could not add coordinate point (out of memory?)");
-                return false;
-            }
+        if (3 * count == vectors.length) {
+            vectors = Arrays.copyOf(vectors, vectors.length * 2);
         }
 
+        Projection.toUnitVector(coordinate.lat, coordinate.lon, vectors, 3 * count);
+        count++;
+
         return true;
     }
 
-    /*
-     * Method to return the vector coordinates as an array
+    /**
+     * Method to return the number of points
+     *
+     * @return an integer representing the points in the unit vector array
      */
-    public synchronized Object[] getAllCoords() {
-        List<LatLon> result = new ArrayList<>();
-
-        result.addAll(coordinates);
+    public synchronized int getPointCount() {
+        return count;
+    }
 
-        return result.toArray();
+    /**
+     * Method to return the packed unit vectors. The array is not copied and
+     * must not be changed, and may be longer than the points.
+     *
+     * @return a double array representing the x, y, z of each point
+     */
+    public synchronized double[] getUnitVectors() {
+        return vectors;
     }
 }
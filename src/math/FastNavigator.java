@@ -0,0 +1,144 @@
+package math;
+
+import scope.LatLon;
+
+/*
+ * A navigator with no state, which may be shared by any number of threads.
+ *
+ * The positions are turned into unit vectors from the earth's center, on
+ * the axes of Projection: x toward 90 degrees east, y toward the north pole,
+ * and z toward 0 degrees longitude on the equator. The distance is the angle between them, found from the straight line
+ * through the earth (the chord). A dead-reckoned position is the great
+ * circle from the start on the heading. There is no projection to re-center,
+ * so nothing is written, and a caller that keeps the unit vectors of its
+ * positions can find distances with no trig at all.
+ *
+ * Error bounds: the earth is a sphere of Projection.EARTH_RADIUS, which is
+ * within 0.7% of the WGS84 ellipsoid anywhere, and the sums are accurate to
+ * better than a meter over any distance. Over short distances it agrees with
+ * OrthographicNavigator, which measures on the tangent plane, to within
+ * d * d / (6 * R * R) of the distance: 2e-5 of it at 40 miles, or under a
+ * meter.
+ */
+public final class FastNavigator implements Navigator {
+
+    private static final double METERS_PER_NM = 1852.0;
+    public static final double EARTH_RADIUS_NM = Projection.EARTH_RADIUS / METERS_PER_NM;
+
+    /**
+     * Method to fill in the unit vector of a position, on the axes of
+     * Projection.toUnitVector
+     *
+     * @param lat a double representing the latitude in degrees
+     * @param lon a double representing the longitude in degrees
+     * @param v a double array of at least three to receive the vector
+     */
+    public static void toUnitVector(double lat, double lon, double[] v) {
+        Projection.toUnitVector(lat, lon, v, 0);
+    }
+
+    /**
+     * Method to return the squared chord between two unit vectors that are
+     * the given distance apart on the surface. Two positions are within the
+     * distance when the squared chord between their vectors is no bigger.
+     *
+     * @param nmiles a double representing the distance in nautical miles
+     * @return a double representing the squared chord on the unit sphere
+     */
+    public static double toChord2(double nmiles) {
+        double half = Math.min(Math.PI, nmiles / EARTH_RADIUS_NM) * 0.5;
+        double chord = 2.0 * Math.sin(half);
+
+        return chord * chord;
+    }
+
+    /**
+     * Method to return the distance on the surface of a squared chord
+     *
+     * @param chord2 a double representing the squared chord on the unit sphere
+     * @return a double representing the distance in nautical miles
+     */
+    public static double fromChord2(double chord2) {
+        double half = Math.min(1.0, Math.sqrt(chord2) * 0.5);
+
+        return 2.0 * Math.asin(half) * EARTH_RADIUS_NM;
+    }
+
+    /**
+     * Method to return the distance between two unit vectors
+     *
+     * @param v1 a double array representing the first unit vector
+     * @param v2 a double array representing the second unit vector
+     * @return a double representing the distance in nautical miles
+     */
+    public static double getDistance(double[] v1, double[] v2) {
+        double dx = v1[0] - v2[0];
+        double dy = v1[1] - v2[1];
+        double dz = v1[2] - v2[2];
+
+        return fromChord2(dx * dx + dy * dy + dz * dz);
+    }
+
+    @Override
+    public LatLon getFutureLocation(LatLon start, double heading, double nmiles) {
+        double phi = Math.toRadians(start.lat);
+        double theta = Math.toRadians(heading);
+        double delta = nmiles / EARTH_RADIUS_NM;
+        double sinLat = Math.sin(phi);
+        double cosLat = Math.cos(phi);
+        double sinDelta = Math.sin(delta);
+        double cosDelta = Math.cos(delta);
+
+        double sinLat2 = sinLat * cosDelta + cosLat * sinDelta * Math.cos(theta);
+        double lat2 = Math.asin(Math.max(-1.0, Math.min(1.0, sinLat2)));
+        double lon2 = Math.toRadians(start.lon)
+                + Math.atan2(Math.sin(theta) * sinDelta * cosLat, cosDelta - sinLat * sinLat2);
+
+        /*
+         * Bring the longitude back into -180 to 180
+         */
+        double lon = Math.toDegrees(lon2);
+
+        if (lon > 180.0) {
+            lon -= 360.0;
+        } else if (lon < -180.0) {
+            lon += 360.0;
+        }
+
+        return new LatLon(Math.toDegrees(lat2), lon);
+    }
+
+    @Override
+    public LatLon getFutureLocation(LatLon start, double heading, double speed, double time) {
+        return getFutureLocation(start, heading, speed * time / 3600.0);
+    }
+
+    @Override
+    public double getDistance(LatLon first, LatLon second) {
+        double[] v1 = new double[3];
+        double[] v2 = new double[3];
+
+        toUnitVector(first.lat, first.lon, v1);
+        toUnitVector(second.lat, second.lon, v2);
+
+        return getDistance(v1, v2);
+    }
+
+    /*
+     * The initial great circle bearing, 0 to 360 degrees. The same two
+     * positions give 0.
+     */
+    @Override
+    public double getBearing(LatLon first, LatLon second) {
+        double phi1 = Math.toRadians(first.lat);
+        double phi2 = Math.toRadians(second.lat);
+        double dLambda = Math.toRadians(second.lon - first.lon);
+        double cosLat2 = Math.cos(phi2);
+
+        double y = Math.sin(dLambda) * cosLat2;
+        double x = Math.cos(phi1) * Math.sin(phi2) - Math.sin(phi1) * cosLat2 * Math.cos(dLambda);
+        double deg = Math.toDegrees(Math.atan2(y, x));
+
+        return (deg < 0.0) ? deg + 360.0 : deg;
+    }
+}
@@ -0,0 +1,61 @@
+package math;
+
+/*
+ * The look-ahead kernel of the conflict pass, over a structure of arrays.
+ *
+ * The positions and velocities are kept as one array per axis rather than
+ * one object per track, and the loop reads and writes them in order, from a
+ * start to an end, with no branches, calls or object reads inside. The tests
+ * that pick out the few results wanted are left to a second loop in the
+ * caller. The loop runs over contiguous memory with nothing to stall on.
+ */
+public final class LookAheadKernel {
+
+    private LookAheadKernel() {
+    }
+
+    /**
+     * Method to work out the closest point of approach of one object to each
+     * of a run of others, all flying straight lines in three dimensions.
+     *
+     * <p>The time is -(d.v)/(v.v) for the relative position d and velocity
+     * v. It is infinite or NaN when the two are not moving apart or
+     * together, which fails any test of it against a range of times.
+     *
+     * @param x a double representing the x of the object's position
+     * @param y a double representing the y of the object's position
+     * @param z a double representing the z of the object's position
+     * @param vx a double representing the x of the object's velocity
+     * @param vy a double representing the y of the object's velocity
+     * @param vz a double representing the z of the object's velocity
+     * @param px a double array representing the x of the positions
+     * @param py a double array representing the y of the positions
+     * @param pz a double array representing the z of the positions
+     * @param qx a double array representing the x of the velocities
+     * @param qy a double array representing the y of the velocities
+     * @param qz a double array representing the z of the velocities
+     * @param from an integer representing the first of the run
+     * @param to an integer representing one past the last of the run
+     * @param time a double array to receive the time of each approach, from 0
+     * @param range2 a double array to receive the squared range of each approach, from 0
+     */
+    public static void closestApproach(double x, double y, double z, double vx, double vy, double vz,
+            double[] px, double[] py, double[] pz, double[] qx, double[] qy, double[] qz,
+            int from, int to, double[] time, double[] range2) {
+        for (int k = from; k < to; k++) {
+            double dx = px[k] - x;
+            double dy = py[k] - y;
+            double dz = pz[k] - z;
+            double dvx = qx[k] - vx;
+            double dvy = qy[k] - vy;
+            double dvz = qz[k] - vz;
+            double t = -(dx * dvx + dy * dvy + dz * dvz) / (dvx * dvx + dvy * dvy + dvz * dvz);
+            double cx = dx + dvx * t;
+            double cy = dy + dvy * t;
+            double cz = dz + dvz * t;
+
+            time[k - from] = t;
+            range2[k - from] = cx * cx + cy * cy + cz * cz;
+        }
+    }
+}
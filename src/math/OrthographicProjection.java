@@ -19,21 +19,19 @@ import scope.LatLon;
  */
 public class OrthographicProjection extends Projection {
 
-    private class Point3D {
-
-        private double x;
-        private double y;
-        private double z;
-
-        public Point3D(double val1, double val2, double val3) {
-            x = val1;
-            y = val2;
-            z = val3;
-        }
-    }
-
-    private Point3D centerVector;
-    private Point3D centerTangent;
+    /*
+     * Everything that only depends on the center is worked out when it is
+     * set. Going to meters is a dot product of the point's vector with two
+     * rows, less the center's part, and coming back is the opposite rotation.
+     */
+    private double vectorX, vectorY, vectorZ;       // center, from earth's center
+    private double rowXx, rowXy, rowXz;             // to meters east
+    private double rowYx, rowYy, rowYz;             // to meters north
+    private double offsetX, offsetY;                // center on the two rows
+    private double sinLon, cosLon;
+    private double back00, back01, back02;          // rotation back toward the center
+    private double back10, back11, back12;
+    private double back20, back21, back22;
 
     /**
      * Constructs a new projection which is centered at the given location.
@@ -58,8 +56,7 @@ public class OrthographicProjection extends Projection {
             //throw new IllegalArgumentException("Illegal latitude: " + center.y);
         }
 
-        centerVector = computeVector(center.lat, center.lon);
-        centerTangent = computeTangent(center.lon);
+        setup(center);
     }
 
     /**
@@ -83,15 +80,71 @@ public class OrthographicProjection extends Projection {
         }
 
         center = centerval;
-        centerVector = computeVector(centerval.lat, centerval.lon);
-        centerTangent = computeTangent(centerval.lon);
+        setup(centerval);
+    }
+
+    /*
+     * Work out the center vector, and the rotations to and from the plane
+     */
+    private void setup(LatLon c) {
+        double sinLat = Math.sin(Math.toRadians(c.lat));
+        double cosLat = Math.cos(Math.toRadians(c.lat));
+
+        sinLon = Math.sin(Math.toRadians(c.lon));
+        cosLon = Math.cos(Math.toRadians(c.lon));
+
+        vectorX = sinLon * cosLat * EARTH_RADIUS;
+        vectorY = sinLat * EARTH_RADIUS;
+        vectorZ = cosLon * cosLat * EARTH_RADIUS;
+
+        /*
+         * The tangent of the latitude, the axis of the rotation toward the
+         * equator. It is the longitude less 90 degrees, so it lies flat.
+         */
+        double tx = Math.sin(Math.toRadians(c.lon - 90.0));
+        double tz = Math.cos(Math.toRadians(c.lon - 90.0));
+
+        // rotate along tangent of latitude toward equator
+        double s = -sinLat;
+        double u = 1.0 - cosLat;
+
+        double m00 = tx * tx * u + cosLat;
+        double m01 = -tz * s;
+        double m02 = tz * tx * u;
+        double m20 = tx * tz * u;
+        double m22 = tz * tz * u + cosLat;
+
+        // then along y-axis toward prime meridian, z is dropped
+        rowXx = m00 * cosLon - m20 * sinLon;
+        rowXy = m01 * cosLon - tx * s * sinLon;
+        rowXz = m02 * cosLon - m22 * sinLon;
+
+        rowYx = tz * s;
+        rowYy = cosLat;
+        rowYz = -tx * s;
+
+        offsetX = rowXx * vectorX + rowXy * vectorY + rowXz * vectorZ;
+        offsetY = rowYx * vectorX + rowYy * vectorY + rowYz * vectorZ;
+
+        // rotate along tangent of latitude toward center
+        s = sinLat;
+
+        back00 = tx * tx * u + cosLat;
+        back01 = -tz * s;
+        back02 = tz * tx * u;
+        back10 = tz * s;
+        back11 = cosLat;
+        back12 = -tx * s;
+        back20 = tx * tz * u;
+        back21 = tx * s;
+        back22 = tz * tz * u + cosLat;
     }
-    
+
     @Override
     public LatLon convertToMeters(LatLon point) {
         return convertToMeters(point.lat, point.lon);
     }
-    
+
     /**
      * Converts the given lon/lat coordinates to meters on the
      * projection plane measured from the center.
@@ -115,38 +168,94 @@ public class OrthographicProjection extends Projection {
             return new LatLon();
         }
 
-        // subtract vector from center to given point
-        Point3D p = computeVector(lat, lon);
-        p.x -= centerVector.x;
-        p.y -= centerVector.y;
-        p.z -= centerVector.z;
+        double phi = Math.toRadians(lat);
+        double lambda = Math.toRadians(lon);
+        double latRadius = Math.cos(phi) * EARTH_RADIUS;
+        double x = Math.sin(lambda) * latRadius;
+        double y = Math.sin(phi) * EARTH_RADIUS;
+        double z = Math.cos(lambda) * latRadius;
 
-        // rotate along tangent of latitude toward equator
-        double a = Math.toRadians(-center.lat);
-        double s = Math.sin(a);
-        double c = Math.cos(a);
-        double u = 1.0 - c;
+        // drop z-coordinate (project onto plane)
+        return new LatLon(rowYx * x + rowYy * y + rowYz * z - offsetY,
+                rowXx * x + rowXy * y + rowXz * z - offsetX);
+    }
 
-        Point3D t = centerTangent;
+    /*
+     * Behind the globe is more than 90 degrees from the center, where the
+     * point's vector has a negative dot with the center's
+     */
+    @Override
+    public boolean isBehind(double lat, double lon) {
+        double phi = Math.toRadians(lat);
+        double lambda = Math.toRadians(lon);
+        double cosLat = Math.cos(phi);
 
-        double x = p.x * ((t.x * t.x) * u + c) +
-                p.y * (t.y * t.x * u - t.z * s) +
-                p.z * (t.z * t.x * u + t.y * s);
+        return Math.sin(lambda) * cosLat * vectorX + Math.sin(phi) * vectorY
+                + Math.cos(lambda) * cosLat * vectorZ < 0.0;
+    }
 
-        double y = p.x * (t.x * t.y * u + t.z * s) +
-                p.y * ((t.y * t.y) * u + c) +
-                p.z * (t.z * t.y * u - t.x * s);
-        
-        double z = p.x * (t.x * t.z * u - t.y * s) +
-                p.y * (t.y * t.z * u + t.x * s) +
-                p.z * ((t.z * t.z) * u + c);
+    /**
+     * Projects a batch of positions straight to screen pixels, with nothing
+     * allocated. A position out of range goes to the center, as it does in
+     * convertToMeters, and one behind the globe to Integer.MIN_VALUE.
+     *
+     * @param lat a double array representing the latitudes in degrees
+     * @param lon a double array representing the longitudes in degrees
+     * @param n an integer representing the number of positions
+     * @param scale a double representing the pixels per meter
+     * @param x an int array to receive the pixels east of the center
+     * @param y an int array to receive the pixels south of the center
+     */
+    @Override
+    public void project(double[] lat, double[] lon, int n, double scale, int[] x, int[] y) {
+        for (int i = 0; i < n; i++) {
+            double la = lat[i];
+            double lo = lon[i];
+
+            if (lo > 180.0 || lo < -180.0 || la > 90.0 || la < -90.0) {
+                x[i] = y[i] = 0;
+                continue;
+            }
 
-        // rotate along y-axis toward prime meridian
-        a = Math.toRadians(-center.lon);
-        x = z * Math.sin(a) + x * Math.cos(a);
+            double phi = Math.toRadians(la);
+            double lambda = Math.toRadians(lo);
+            double latRadius = Math.cos(phi) * EARTH_RADIUS;
+            double px = Math.sin(lambda) * latRadius;
+            double py = Math.sin(phi) * EARTH_RADIUS;
+            double pz = Math.cos(lambda) * latRadius;
 
-        // drop z-coordinate (project onto plane)
-        return new LatLon(y, x);
+            if (px * vectorX + py * vectorY + pz * vectorZ < 0.0) {
+                x[i] = y[i] = Integer.MIN_VALUE;
+                continue;
+            }
+
+            x[i] = (int) ((rowXx * px + rowXy * py + rowXz * pz - offsetX) * scale);
+            y[i] = (int) ((rowYx * px + rowYy * py + rowYz * pz - offsetY) * -scale);
+        }
+    }
+
+    /*
+     * The rows are scaled by the radius and the screen scale once, so each
+     * point is only a matrix multiply, with no trig
+     */
+    @Override
+    public void projectVectors(double[] v, int n, double scale, int[] x, int[] y) {
+        double r = EARTH_RADIUS * scale;
+        double ax = rowXx * r, ay = rowXy * r, az = rowXz * r, ao = offsetX * scale;
+        double bx = rowYx * -r, by = rowYy * -r, bz = rowYz * -r, bo = offsetY * -scale;
+
+        for (int i = 0, k = 0; i < n; i++, k += 3) {
+            double px = v[k];
+            double py = v[k + 1];
+            double pz = v[k + 2];
+
+            if (px * vectorX + py * vectorY + pz * vectorZ < 0.0) {
+                x[i] = y[i] = Integer.MIN_VALUE;
+            } else {
+                x[i] = (int) (ax * px + ay * py + az * pz - ao);
+                y[i] = (int) (bx * px + by * py + bz * pz - bo);
+            }
+        }
     }
 
     /**
@@ -176,35 +285,19 @@ public class OrthographicProjection extends Projection {
         double z = Math.sqrt((EARTH_RADIUS * EARTH_RADIUS) - (d * d)) - EARTH_RADIUS;
 
         // rotate along y-axis toward center meridian
-        double a = Math.toRadians(center.lon);
-        double x1 = z * Math.sin(a) + lon * Math.cos(a);
+        double x1 = z * sinLon + lon * cosLon;
         double y1 = lat;
-        double z1 = z * Math.cos(a) - lon * Math.sin(a);
+        double z1 = z * cosLon - lon * sinLon;
 
         // rotate along tangent of latitude toward center
-        a = Math.toRadians(center.lat);
-        double s = Math.sin(a);
-        double c = Math.cos(a);
-        double u = 1.0 - c;
-
-        Point3D t = centerTangent;
-
-        double x2 = x1 * (t.x * t.x * u + c) +
-                y1 * (t.y * t.x * u - t.z * s) +
-                z1 * (t.z * t.x * u + t.y * s);
-
-        double y2 = x1 * (t.x * t.y * u + t.z * s) +
-                y1 * (t.y * t.y * u + c) +
-                z1 * (t.z * t.y * u - t.x * s);
-        
-        double z2 = x1 * (t.x * t.z * u - t.y * s) +
-                y1 * (t.y * t.z * u + t.x * s) +
-                z1 * (t.z * t.z * u + c);
+        double x2 = x1 * back00 + y1 * back01 + z1 * back02;
+        double y2 = x1 * back10 + y1 * back11 + z1 * back12;
+        double z2 = x1 * back20 + y1 * back21 + z1 * back22;
 
         // compute vector from earth's center
-        x2 += centerVector.x;
-        y2 += centerVector.y;
-        z2 += centerVector.z;
+        x2 += vectorX;
+        y2 += vectorY;
+        z2 += vectorZ;
 
         // compute lat/lon (in radians)
         double latitude = Math.asin(y2 / EARTH_RADIUS);
@@ -233,27 +326,4 @@ public class OrthographicProjection extends Projection {
     public Object clone() {
         return new OrthographicProjection(new LatLon(center.lat, center.lon));
     }
-
-    private Point3D computeVector(double lat, double lon) {
-        double sinLat = Math.sin(Math.toRadians(lat));
-        double cosLat = Math.cos(Math.toRadians(lat));
-        double sinLon = Math.sin(Math.toRadians(lon));
-        double cosLon = Math.cos(Math.toRadians(lon));
-
-        double latRadius = cosLat * EARTH_RADIUS;
-
-        return new Point3D(
-                sinLon * latRadius,
-                sinLat * EARTH_RADIUS,
-                cosLon * latRadius);
-    }
-
-    private Point3D computeTangent(double lon) {
-        double l = lon - 90.0;
-        double sinLon = Math.sin(Math.toRadians(l));
-        double cosLon = Math.cos(Math.toRadians(l));
-
-        return new Point3D(sinLon, 0.0, cosLon);
-    }
 }
-
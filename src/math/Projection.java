@@ -9,6 +9,11 @@ import scope.LatLon;
  * earth`s surface, touching it only at one point. Hence this point is the only
  * information needed to fully describe the projection plane.
  *
+ * Unit vectors from the earth's center, here and in FastNavigator, have x
+ * toward 90 degrees east, y toward the north pole, and z toward 0 degrees
+ * longitude on the equator. This is a screen looking down on 0,0, with x to
+ * the right and y up.
+ *
  * Copyright (C) 2004 Stefan Bissell
  */
 public abstract class Projection {
@@ -89,6 +94,96 @@ public abstract class Projection {
      */
     public abstract LatLon convertToMeters(double lat, double lon);
 
+    /**
+     * Projects a batch of positions straight to screen pixels, the x east
+     * and the y south of the center, as the meters times the scale.
+     * Projections that can do it without allocating override this.
+     *
+     * @param lat The latitudes of the positions in degrees.
+     *
+     * @param lon The longitudes of the positions in degrees.
+     *
+     * @param n The number of positions.
+     *
+     * @param scale The scale (in pixels per meter).
+     *
+     * @param x Receives the x-coordinates in pixels.
+     *
+     * @param y Receives the y-coordinates in pixels.
+     */
+    public void project(double[] lat, double[] lon, int n, double scale, int[] x, int[] y) {
+        for (int i = 0; i < n; i++) {
+            LatLon m = convertToMeters(lat[i], lon[i]);
+
+            x[i] = (int) (m.lon * scale);
+            y[i] = (int) (m.lat * -scale);
+        }
+    }
+
+    /**
+     * Projects a batch of unit vectors, as made by
+     * {@link #toUnitVector(double,double,double[],int)}, to screen pixels.
+     * A point behind the globe gets Integer.MIN_VALUE for both, which is
+     * off any screen.
+     *
+     * @param v The x, y, z of each point, packed.
+     *
+     * @param n The number of points.
+     *
+     * @param scale The scale (in pixels per meter).
+     *
+     * @param x Receives the x-coordinates in pixels.
+     *
+     * @param y Receives the y-coordinates in pixels.
+     */
+    public void projectVectors(double[] v, int n, double scale, int[] x, int[] y) {
+        for (int i = 0; i < n; i++) {
+            double lat = Math.toDegrees(Math.asin(v[3 * i + 1]));
+            double lon = Math.toDegrees(Math.atan2(v[3 * i], v[3 * i + 2]));
+            LatLon m = convertToMeters(lat, lon);
+
+            x[i] = (int) (m.lon * scale);
+            y[i] = (int) (m.lat * -scale);
+        }
+    }
+
+    /**
+     * Tells whether a position is on the far side of the earth from the
+     * center, where a flat projection would put it back over the near side.
+     *
+     * @param lat The latitude of the position in degrees.
+     *
+     * @param lon The longitude of the position in degrees.
+     *
+     * @return true if the position can't be seen from over the center.
+     */
+    public boolean isBehind(double lat, double lon) {
+        return false;
+    }
+
+    /**
+     * Stores the unit vector of a position from the earth's center, x toward
+     * 90 degrees east, y toward the north pole, and z toward 0 degrees
+     * longitude on the equator.
+     *
+     * @param lat The latitude in degrees.
+     *
+     * @param lon The longitude in degrees.
+     *
+     * @param v Receives the x, y, z.
+     *
+     * @param offset Where in v the x goes.
+     */
+    public static void toUnitVector(double lat, double lon, double[] v, int offset) {
+        double phi = Math.toRadians(lat);
+        double lambda = Math.toRadians(lon);
+        double cosLat = Math.cos(phi);
+
+        v[offset] = Math.sin(lambda) * cosLat;
+        v[offset + 1] = Math.sin(phi);
+        v[offset + 2] = Math.cos(lambda) * cosLat;
+    }
+
     /**
      * Converts the given x/y-coordinates on the projection plane to coordinates
      * on earth`s surface.
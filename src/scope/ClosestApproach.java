@@ -0,0 +1,60 @@
+package scope;
+
+/*
+ * The predicted closest point of approach of a track to another track.
+ *
+ * The Conflict look-ahead makes one when two tracks, flying on as they
+ * are, will come within the conflict range and separation. It is never
+ * changed after it is made, so it holds the time of the approach, and the
+ * seconds to go are counted down from that when it is painted.
+ */
+public final class ClosestApproach {
+
+    private final long time;            // UTC milliseconds of the approach
+    private final double distance;      // nautical miles
+    private final LatLon position;      // of this track at the closest point
+    private final String otherAcid;
+
+    ClosestApproach(long t, double d, LatLon p, String other) {
+        time = t;
+        distance = d;
+        position = p;
+        otherAcid = other;
+    }
+
+    /**
+     * Method to return when the closest approach will be
+     *
+     * @return a long representing the UTC time in milliseconds
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Method to return how long until the closest approach
+     *
+     * @param now a long representing the UTC time in milliseconds
+     * @return an integer representing the seconds to go, negative once passed
+     */
+    public int getSeconds(long now) {
+        return (int) Math.round((time - now) / 1000.0);
+    }
+
+    /**
+     * Method to return how far apart the tracks will be
+     *
+     * @return a double representing the distance in nautical miles
+     */
+    public double getDistance() {
+        return distance;
+    }
+
+    public LatLon getPosition() {
+        return position;
+    }
+
+    public String getOtherAcid() {
+        return otherAcid;
+    }
+}
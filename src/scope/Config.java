@@ -10,8 +10,11 @@ import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.sql.Timestamp;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -54,9 +57,18 @@ public final class Config {
     public static final String DISP_INSTRM_CAALT = "display.ca-alt";
     public static final String DISP_INSTRM_CAFLOOR = "display.ca-floor";
     public static final String DISP_INSTRM_CARNG = "display.ca-range";
+    public static final String DISP_INSTRM_CALOOK = "display.ca-look";
     public static final String DISP_INSTRM_DIM = "display.dim";
     public static final String DISP_INSTRM_DROP = "display.drop";
     //
+    // There is one set of tracks and one conflict search for all of the
+    // windows, so these are read from the first config file only. A window
+    // opened from another config file shows and changes the first one's.
+    //
+    private static final Set<String> SHARED = new HashSet<>(Arrays.asList(
+            DISP_INSTRM_CA, DISP_INSTRM_CAALT, DISP_INSTRM_CAFLOOR, DISP_INSTRM_CARNG,
+            DISP_INSTRM_CALOOK, DISP_INSTRM_DIM, DISP_INSTRM_DROP));
+    //
     public static final String COLORS_MAP1 = "display.color_map1";
     public static final String COLORS_MAP2 = "display.color_map2";
     public static final String COLORS_MAP3 = "display.color_map3";
@@ -129,6 +141,17 @@ public final class Config {
     private String databasePort;
     private String databaseLogin;
     private String databasePassword;
+    private boolean databaseIncremental;
+    private int databaseConnections;
+    private String databaseRegistrations;
+    private String sourceType;
+    private String sourceHost;
+    private int sourcePort;
+    private String sourceFile;
+    private double sourceSpeed;
+    private int conflictParallel;
+    //
+    private volatile Config shared;     // the first config file, or null if this is it
 
     Config(String conf, String map) {
         sqlTime = new Timestamp(0L);
@@ -145,6 +168,7 @@ public final class Config {
         mapScale = 0.001;
         screenWidth = 0;
         screenHeight = 0;
+        shared = null;
 
         Props = new Properties();
 
@@ -216,6 +240,81 @@ public final class Config {
             databasePassword = temp.trim();
         }
 
+        temp = Props.getProperty("db.incremental");
+        if (temp == null) {
+            databaseIncremental = true;
+            System.out.println("db.incremental not set, set to true");
+        } else {
+            databaseIncremental = Boolean.parseBoolean(temp.trim());
+        }
+
+        temp = Props.getProperty("db.connections", "4").trim();
+        try {
+            databaseConnections = Integer.parseInt(temp);
+        } catch (NumberFormatException e) {
+            databaseConnections = 4;
+        }
+
+        temp = Props.getProperty("db.registrations");
+        if (temp == null) {
+            databaseRegistrations = "lookup";
+        } else {
+            databaseRegistrations = temp.trim().toLowerCase();
+        }
+
+        temp = Props.getProperty("source.type");
+        if (temp == null) {
+            sourceType = "database";
+            System.out.println("source.type not set, set to database");
+        } else {
+            sourceType = temp.trim().toLowerCase();
+
+            switch (sourceType) {
+                case "database":
+                case "sbs":
+                case "replay":
+                    break;
+                default:
+                    System.out.println("source.type " + temp.trim() + " unknown, set to database");
+                    sourceType = "database";
+            }
+        }
+
+        temp = Props.getProperty("source.host");
+        if (temp == null) {
+            sourceHost = "127.0.0.1";
+        } else {
+            sourceHost = temp.trim();
+        }
+
+        temp = Props.getProperty("source.port", "30003").trim();
+        try {
+            sourcePort = Integer.parseInt(temp);
+        } catch (NumberFormatException e) {
+            sourcePort = 30003;
+        }
+
+        temp = Props.getProperty("source.file");
+        if (temp == null) {
+            sourceFile = "replay.sbs";
+        } else {
+            sourceFile = temp.trim();
+        }
+
+        temp = Props.getProperty("source.speed", "1.0").trim();
+        try {
+            sourceSpeed = Double.parseDouble(temp);
+        } catch (NumberFormatException e) {
+            sourceSpeed = 1.0;
+        }
+
+        temp = Props.getProperty("ca.parallel", "2000").trim();
+        try {
+            conflictParallel = Integer.parseInt(temp);
+        } catch (NumberFormatException e) {
+            conflictParallel = 2000;
+        }
+
         temp = Props.getProperty(STATION_ALT, "0").trim();
         Props.setProperty(STATION_ALT, temp);
         try {
@@ -371,6 +470,18 @@ public final class Config {
 
         addIntegerSetting(DISP_INSTRM_CARNG, v1, v2, v3, v4);
 
+        /*
+         * Minutes to look ahead for a closest approach, 0 is off
+         */
+        temp = Props.getProperty(DISP_INSTRM_CALOOK, "2 0 10");
+        Props.setProperty(DISP_INSTRM_CALOOK, temp);
+        token = temp.split(" ");
+        v1 = Integer.parseInt(token[0].trim());
+        v2 = Integer.parseInt(token[1].trim());
+        v3 = Integer.parseInt(token[2].trim());
+
+        addIntegerSetting(DISP_INSTRM_CALOOK, v1, v2, v3);
+
         temp = Props.getProperty(DISP_INSTRM_CAFLOOR, "120 10 10 990");
         Props.setProperty(DISP_INSTRM_CAFLOOR, temp);
         token = temp.split(" ");
@@ -789,11 +900,25 @@ public final class Config {
             sqlTime.setTime(System.currentTimeMillis());
             bout.write(sqlTime.toString() + "\r\n#\r\n");
 
+            if (shared != null) {
+                bout.write("# display.ca, ca-alt, ca-floor, ca-range, ca-look, dim and drop\r\n");
+                bout.write("# are read from the first config file, " + shared.getOSConfPath() + "\r\n#\r\n");
+            }
+
             bout.write("db.host = " + databaseHost + "\r\n");
             bout.write("db.port = " + databasePort + "\r\n");
             bout.write("db.name = " + databaseName + "\r\n");
             bout.write("db.login = " + databaseLogin + "\r\n");
             bout.write("db.password = " + databasePassword + "\r\n");
+            bout.write("db.incremental = " + Boolean.toString(databaseIncremental) + "\r\n");
+            bout.write("db.connections = " + Integer.toString(databaseConnections) + "\r\n");
+            bout.write("db.registrations = " + databaseRegistrations + "\r\n");
+            bout.write("source.type = " + sourceType + "\r\n");
+            bout.write("source.host = " + sourceHost + "\r\n");
+            bout.write("source.port = " + Integer.toString(sourcePort) + "\r\n");
+            bout.write("source.file = " + sourceFile + "\r\n");
+            bout.write("source.speed = " + Double.toString(sourceSpeed) + "\r\n");
+            bout.write("ca.parallel = " + Integer.toString(conflictParallel) + "\r\n");
             bout.write("station.name = " + homeName + "\r\n");
             bout.write("station.alt = " + Integer.toString(homeAlt) + "\r\n");
             bout.write("station.latitude = " + Double.toString(homeLat) + "\r\n");
@@ -816,7 +941,7 @@ public final class Config {
                 if (key.equals(DISP_INSTRM_DIM) || key.equals(DISP_INSTRM_DROP)
                         || key.equals(DISP_INSTRM_BLOCK) || key.equals(DISP_INSTRM_VECTOR)
                         || key.equals(DISP_INSTRM_LEADER) || key.equals(DISP_INSTRM_ECHOES)
-                        || key.equals(DISP_INSTRM_ESIZE)) {
+                        || key.equals(DISP_INSTRM_ESIZE) || key.equals(DISP_INSTRM_CALOOK)) {
                     line = key + " = " + Integer.toString(val.value)
                             + " " + Integer.toString(val.min)
                             + " " + Integer.toString(val.max);
@@ -884,12 +1009,106 @@ public final class Config {
     }
 
     /**
-     * Getter to return the database connection URL
+     * Getter to return whether the target table is polled incrementally
+     *
+     * @return a boolean Representing incremental (true) or full (false) polls
+     */
+    public boolean getDatabaseIncremental() {
+        return databaseIncremental;
+    }
+
+    /**
+     * Getter to return the size of the database connection pool
+     *
+     * @return an integer Representing the most connections to open
+     */
+    public int getDatabaseConnections() {
+        return databaseConnections;
+    }
+
+    /**
+     * Getter to return how aircraft registrations are found
+     *
+     * @return a string Representing lookup (query as needed) or preload (index the whole table)
+     */
+    public String getDatabaseRegistrations() {
+        return databaseRegistrations;
+    }
+
+    /**
+     * Getter to return the registration index file path
+     *
+     * @return a string Representing the index file in the home directory
+     */
+    public String getRegistrationIndexFile() {
+        return homeDir + "registrations.idx";
+    }
+
+    /**
+     * Getter to return the track source type
+     *
+     * @return a string Representing database, sbs, or replay
+     */
+    public String getSourceType() {
+        return sourceType;
+    }
+
+    /**
+     * Getter to return the SBS-1 host name
+     *
+     * @return a string Representing the host sending SBS-1 messages
+     */
+    public String getSourceHost() {
+        return sourceHost;
+    }
+
+    /**
+     * Getter to return the SBS-1 port number
+     *
+     * @return an integer Representing the port, usually 30003
+     */
+    public int getSourcePort() {
+        return sourcePort;
+    }
+
+    /**
+     * Getter to return the replay file path
+     *
+     * @return a string Representing the recorded SBS-1 file in the home directory
+     */
+    public String getSourceFile() {
+        return homeDir + sourceFile;
+    }
+
+    /**
+     * Getter to return the replay speed
+     *
+     * @return a double Representing the speed factor, or 0 for as fast as possible
+     */
+    public double getSourceSpeed() {
+        return sourceSpeed;
+    }
+
+    /**
+     * Getter to return the candidate count at which the conflict search is
+     * split across the processors
+     *
+     * @return an integer Representing the candidates, or 0 to never split
+     */
+    public int getConflictParallel() {
+        return conflictParallel;
+    }
+
+    /**
+     * Getter to return the database connection URL. The driver is asked for
+     * server side prepared statements, which the server parses once, and
+     * to keep them when the statement is closed.
      *
      * @return a string Representing the database URL
      */
     public String getDatabaseURL() {
-        return "jdbc:mysql://" + databaseHost + ":" + databasePort + "/" + databaseName + "?serverTimezone=America/Chicago";
+        return "jdbc:mysql://" + databaseHost + ":" + databasePort + "/" + databaseName + "?serverTimezone=America/Chicago"
+                + "&useServerPrepStmts=true&cachePrepStmts=true";
     }
 
     /**
@@ -952,6 +1171,20 @@ public final class Config {
         return screenWidth;
     }
 
+    /**
+     * Method to take the track and conflict settings from the first config
+     * file, for a window opened from another one
+     *
+     * @param first the Config of the first config file
+     */
+    public void setSharedSettings(Config first) {
+        shared = (first == this) ? null : first;
+    }
+
+    private boolean isShared(String name) {
+        return (shared != null) && SHARED.contains(name);
+    }
+
     public void addBooleanSetting(String name, boolean value) {
         if (name != null && name.length() > 0) {
             try {
@@ -1001,6 +1234,10 @@ public final class Config {
     }
 
     public boolean getBooleanSetting(String name) {
+        if (isShared(name)) {
+            return shared.getBooleanSetting(name);
+        }
+
         Boolean obj;
 
         if (name != null && name.length() > 0) {
@@ -1016,6 +1253,10 @@ public final class Config {
     }
 
     public int getIntegerSetting(String name) {
+        if (isShared(name)) {
+            return shared.getIntegerSetting(name);
+        }
+
         IntegerSetting obj;
 
         if (name != null && name.length() > 0) {
@@ -1061,6 +1302,11 @@ public final class Config {
     }
 
     public void toggleBooleanSetting(String name) {
+        if (isShared(name)) {
+            shared.toggleBooleanSetting(name);
+            return;
+        }
+
         Boolean obj;
 
         if (name != null && name.length() > 0) {
@@ -1074,6 +1320,11 @@ public final class Config {
     }
 
     public void setBooleanSetting(String name, boolean val) {
+        if (isShared(name)) {
+            shared.setBooleanSetting(name, val);
+            return;
+        }
+
         if (name != null && name.length() > 0) {
             try {
                 booleanSettings.put(name, val);
@@ -1084,6 +1335,10 @@ public final class Config {
     }
 
     public int incIntegerSetting(String name) {
+        if (isShared(name)) {
+            return shared.incIntegerSetting(name);
+        }
+
         IntegerSetting obj;
 
         if (name != null && name.length() > 0) {
@@ -1106,6 +1361,10 @@ public final class Config {
     }
 
     public int decIntegerSetting(String name) {
+        if (isShared(name)) {
+            return shared.decIntegerSetting(name);
+        }
+
         IntegerSetting obj;
 
         if (name != null && name.length() > 0) {
@@ -1,152 +1,950 @@
 package scope;
 
-import java.util.Enumeration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.ConcurrentHashMap;
-import math.OrthographicNavigator;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import math.FastNavigator;
+import math.LookAheadKernel;
 
 /**
  * Class to manage track conflicts.
  *
  * <p>A conflict is two or more tracks that are less than xx feet separated in
  * height, and within xx nautical miles of each other.
+ *
+ * <p>With a look-ahead set, the tracks not in conflict are also flown on at
+ * their speed, track and vertical rate, and a pair that will come into
+ * conflict within the look-ahead is given its closest point of approach.
+ *
+ * <p>The pairs in conflict are kept from one pass to the next. A pass only
+ * tests again the tracks that have moved, changed altitude or vector, come or
+ * gone since the last one, and keeps the other pairs as they were. The
+ * tracks are then told only of the pairs that came or went, so a conflict
+ * that stands is never cleared part way through a pass. The whole set is
+ * published at the end of each pass.
+ *
+ * <p>When there are more candidates than the ca.parallel setting, the grid
+ * is split into ranges that are searched on the common fork/join pool. Each
+ * task keeps the pairs it finds to itself, and they are merged on the
+ * scheduler thread once all the tasks are done, so the tasks share nothing
+ * they write.
  */
-public final class Conflict {
+public final class Conflict implements TrackListener {
 
+    private static final int MOVES = Track.CHANGE_POSITION | Track.CHANGE_ALTITUDE
+            | Track.CHANGE_VECTOR | Track.CHANGE_VERTICAL;
+    private static final int COMES_GOES = TrackChanges.ADDED | TrackChanges.DIMMED | TrackChanges.DROPPED;
     private static final long RATE = 3L * 1000L;
     //
+    private static final int INDEX_BITS = 18;           // grid entry is the cell key and the index, 262144 tracks
+    private static final long INDEX_MASK = (1L << INDEX_BITS) - 1L;
+    private static final int ALT_BITS = 10;
+    private static final int LON_BITS = 16;
+    private static final int SPLIT_MIN = 64;            // smallest range given to a task
+    private static final double GRID_SPEED = 750.0;     // knots, faster is searched apart from the grid
+    private static final int GRID_RATE = 6000;          // feet per minute, as above
+    private static final long OUTSIDE = 1L << (LON_BITS * 2 + ALT_BITS);   // cell key above any real one
+    //
     private final ProcessTracks process;
-    private final OrthographicNavigator nav;
     private final Config config;
-    private final ConcurrentHashMap<String, Integer> alts;
-    private final Timer timer;
-    private final TimerTask task;
+    private final int parallel;         // candidates before the search is split, 0 never
+    private int[] candidates;           // snapshot indexes, on the scheduler thread
+    private int count;
+    private long[] grid;                // cell key and index of each candidate, sorted
+    private long compared;              // pairs looked at in the last pass
+    private long predicted;             // pairs predicted to conflict in the last pass
+    private long retested;              // tracks tested again in the last pass
+    private long passTime;              // nanoseconds the last pass took
+    private long maxPassTime;
+    private boolean passSplit;          // the last pass was split
+    private Set<Long> pairs;            // pairs in conflict, as two addresses in a long
+    private Set<Long> found;            // pairs found by the pass being run
+    private final Set<Integer> touched; // addresses of the tracks changed since the last pass
+    private boolean full;               // every pair needs testing again
+    private volatile Set<Long> published;
+    private final TickScheduler scheduler;
+    private final TickStage stage;
+    //
+    /*
+     * The pass being run, all indexed by the snapshot index
+     */
+    private List<Track> tracks;
+    private double[] lat;
+    private double[] lon;
+    private int[] alt;
+    private int[] vr;                   // feet per minute
+    private int[] indexOfSlot;          // candidate snapshot index of each TrackColumns slot, -1 if none
+    private boolean[] moved;
+    private int[] movedList;            // the moved candidates of an incremental pass
+    /*
+     * The look-ahead, in grid order, so the tracks of a run are next to each
+     * other. Positions are nautical miles from the earth's center, and
+     * velocities nautical miles per second along the surface.
+     */
+    private double[] px, py, pz;
+    private double[] qx, qy, qz;
+    private double[] aheadAlt;          // feet
+    private double[] climb;             // feet per second
+    private double[] ux, uy, uz;        // unit vector of each candidate position
+    private final double[] unit;
+    private float[] soonest;            // seconds to the soonest predicted conflict
+    private float[] soonestRange;
+    private int[] soonestOther;
+    private int limit;
+    private double limitLat;
+    private double limitChord2;         // squared chord of the limit on the unit sphere
+    private int separation;
+    private int look;                   // seconds
+    private boolean ahead;
+    private double gridLat, gridLon;
+    private int gridAlt;
 
-    public Conflict(ProcessTracks pr, Config c) {
+    public Conflict(ProcessTracks pr, Config c, TickScheduler ts) {
         process = pr;
-        nav = new OrthographicNavigator();
         config = c;
+        parallel = c.getConflictParallel();
 
-        alts = new ConcurrentHashMap<>(100);
+        candidates = new int[100];
+        grid = new long[100];
+        px = new double[100];
+        py = new double[100];
+        pz = new double[100];
+        qx = new double[100];
+        qy = new double[100];
+        qz = new double[100];
+        aheadAlt = new double[100];
+        climb = new double[100];
+        ux = new double[100];
+        uy = new double[100];
+        uz = new double[100];
+        unit = new double[3];
+        soonest = new float[100];
+        soonestRange = new float[100];
+        soonestOther = new int[100];
+        indexOfSlot = new int[100];
+        moved = new boolean[100];
+        movedList = new int[100];
+        count = 0;
+        pairs = new HashSet<>();
+        found = new HashSet<>();
+        touched = new HashSet<>();
+        published = Collections.emptySet();
+        full = true;
 
-        task = new ConflictTask();
-        timer = new Timer();
-        timer.scheduleAtFixedRate(task, 0L, RATE);
+        stage = new ConflictStage();
+        scheduler = ts;
+        scheduler.addStage(stage);
+        process.addTrackListener(this);
     }
 
     public void close() {
-        timer.cancel();
+        process.removeTrackListener(this);
+        scheduler.removeStage(stage);
+    }
+
+    /*
+     * Called on the scheduler thread after each tick with changes. Only
+     * the changes that can make or break a conflict count.
+     */
+    @Override
+    public void tracksChanged(TrackChanges changes) {
+        for (int i = 0; i < changes.size(); i++) {
+            if ((changes.getEvents(i) & COMES_GOES) != 0 || (changes.getChanges(i) & MOVES) != 0) {
+                touched.add(changes.getTrack(i).getIcao());
+            }
+        }
     }
 
-    class ConflictTask extends TimerTask {
+    /**
+     * Method to return the pairs in conflict after the last pass. Each pair
+     * is the two track addresses, the lower one in the high half of the long.
+     *
+     * @return an unmodifiable Set representing the pairs in conflict
+     */
+    public Set<Long> getConflictPairs() {
+        return published;
+    }
 
-        List<Track> tracks;
-        Track candidate1, candidate2;
+    private static long pairKey(int icao1, int icao2) {
+        int low = Math.min(icao1, icao2);
+        int high = Math.max(icao1, icao2);
 
-        @Override
-        public void run() {
+        return ((long) low << 32) | (high & 0xFFFFFFFFL);
+    }
+
+    /*
+     * The tracks are put in a grid of cells, cellLat high in latitude, as
+     * wide in longitude, and cellAlt deep in altitude. A track can only
+     * conflict with the tracks in its own cell and the 26 around it, so only
+     * those are compared, instead of every pair.
+     *
+     * Each cell is packed into a key, and the keys sorted, so the tracks of
+     * a cell are together, and a cell is found with a binary search. The cell
+     * numbers wrap around in the key, which only puts a few far away tracks
+     * in the same cell, and the checks below leave them out.
+     */
+    private void buildGrid(double cellLat, int cellAlt) {
+        double maxLat = 0.0;
+
+        for (int n = 0; n < count; n++) {
+            maxLat = Math.max(maxLat, Math.abs(lat[candidates[n]]));
+        }
+
+        /*
+         * A degree of longitude is shortest at the highest latitude, so the
+         * cells are made wide enough there.
+         */
+        double cellLon = cellLat / Math.max(0.05, Math.cos(Math.toRadians(maxLat)));
+        int altCell = Math.max(1, cellAlt);
+
+        for (int n = 0; n < count; n++) {
+            int i = candidates[n];
+
+            grid[n] = (cellKey((int) Math.floor(lat[i] / cellLat), (int) Math.floor(lon[i] / cellLon),
+                    Math.floorDiv(alt[i], altCell)) << INDEX_BITS) | i;
+        }
+
+        Arrays.sort(grid, 0, count);
+        gridLat = cellLat;
+        gridLon = cellLon;
+        gridAlt = altCell;
+    }
+
+    /*
+     * Compare the runs of the grid that start between from and to. A run
+     * that starts before from belongs to the range before.
+     */
+    private void searchRuns(int from, int to, Hits h) {
+        int start = from;
+
+        while (start > 0 && start < to && (grid[start] >>> INDEX_BITS) == (grid[start - 1] >>> INDEX_BITS)) {
+            start++;
+        }
+
+        while (start < to) {
+            long key = grid[start] >>> INDEX_BITS;
+            int end = start + 1;
+
+            while (end < count && (grid[end] >>> INDEX_BITS) == key) {
+                end++;
+            }
+
+            int la = (int) (key >>> (LON_BITS + ALT_BITS));
+            int lo = (int) (key >>> ALT_BITS);
+            int al = (int) key;
 
             /*
-             * Determine if there are any other tracks within x nautical miles.
-             * Those tracks that are within that range are checked to see if they
-             * are less than xxxx feet apart in altitude. If they are, the track
-             * is added to the conflict table of that track.
+             * Each pair of cells is only looked at from the lower key
              */
+            for (int dla = -1; dla <= 1; dla++) {
+                for (int dlo = -1; dlo <= 1; dlo++) {
+                    for (int dal = -1; dal <= 1; dal++) {
+                        long other = cellKey(la + dla, lo + dlo, al + dal);
 
-            try {
-                tracks = process.getTrackListWithPositions();
+                        if (other == key) {
+                            comparePairs(start, end, start, end, h);
+                        } else if (other > key) {
+                            int next = find(other, end);
+
+                            if (next < count) {
+                                int last = next + 1;
+
+                                while (last < count && (grid[last] >>> INDEX_BITS) == other) {
+                                    last++;
+                                }
 
-                /*
-                 * Clear the altitude table
-                 */
+                                comparePairs(start, end, next, last, h);
+                            }
+                        }
+                    }
+                }
+            }
 
-                alts.clear();
+            start = end;
+        }
+    }
 
-                if (config.getBooleanSetting(Config.DISP_INSTRM_CA)) {
-                    if (tracks.size() >= 2) {
+    /*
+     * Test one track against the tracks in its cell and the cells around
+     * it. A pair of two tracks that both moved is only tested from the
+     * lower index.
+     */
+    private void searchAround(int i, Hits h) {
+        long key = cellKey((int) Math.floor(lat[i] / gridLat), (int) Math.floor(lon[i] / gridLon),
+                Math.floorDiv(alt[i], gridAlt));
+        int la = (int) (key >>> (LON_BITS + ALT_BITS));
+        int lo = (int) (key >>> ALT_BITS);
+        int al = (int) key;
 
-                        /*
-                         * Create a list of track acid and altitude Then delete
-                         * all the old conflicts
-                         */
+        for (int dla = -1; dla <= 1; dla++) {
+            for (int dlo = -1; dlo <= 1; dlo++) {
+                for (int dal = -1; dal <= 1; dal++) {
+                    long other = cellKey(la + dla, lo + dlo, al + dal);
 
-                        for (Track track : tracks) {
-                            try {
-                                alts.put(track.getAcid(), track.getAltitude());
-                            } catch (NullPointerException e) {
-                                System.err.println("Conflict::run1 Exception during put " + e.toString());
-                            }
+                    for (int n = find(other, 0); n < count && (grid[n] >>> INDEX_BITS) == other; n++) {
+                        int j = (int) (grid[n] & INDEX_MASK);
 
-                            track.removeAllConflict();
+                        if (j != i && (moved[j] == false || i < j)) {
+                            checkNow(i, j, h);
+                            h.compared++;
                         }
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * Search the whole grid when runs is true, or around the first n moved
+     * tracks. A big search is split over the fork/join pool.
+     */
+    private Hits search(boolean runs, int n) {
+        if (parallel <= 0 || count < parallel || n < SPLIT_MIN * 2) {
+            Hits h = new Hits();
+
+            if (runs) {
+                searchRuns(0, n, h);
+            } else {
+                searchMoved(0, n, h);
+            }
 
-                        /*
-                         * Run through the list, and if any tracks altitude is
-                         * within +/- xx feet of each other add that acid to the
-                         * tracks conflict table.
-                         */
+            return h;
+        }
+
+        passSplit = true;
 
-                        for (Enumeration e1 = alts.keys(); e1.hasMoreElements();) {
-                            String acid1 = (String) e1.nextElement();
-                            int altitude1 = alts.get(acid1);
+        int grain = Math.max(SPLIT_MIN, n / (ForkJoinPool.getCommonPoolParallelism() * 4));
 
-                            if (altitude1 >= (config.getIntegerSetting(Config.DISP_INSTRM_CAFLOOR) * 100)) {
-                                /*
-                                 * Compare this acid value to all the other acid
-                                 * values
-                                 */
+        return ForkJoinPool.commonPool().invoke(new SearchTask(runs, 0, n, grain));
+    }
 
-                                for (Enumeration e2 = alts.keys(); e2.hasMoreElements();) {
-                                    String acid2 = (String) e2.nextElement();
-                                    int altitude2 = alts.get(acid2);
+    private void searchMoved(int from, int to, Hits h) {
+        for (int n = from; n < to; n++) {
+            searchAround(movedList[n], h);
+        }
+    }
 
-                                    if (altitude2 >= (config.getIntegerSetting(Config.DISP_INSTRM_CAFLOOR) * 100)) {
+    private static long cellKey(int la, int lo, int al) {
+        return ((long) (la & 0xFFFF) << (LON_BITS + ALT_BITS))
+                | ((long) (lo & ((1 << LON_BITS) - 1)) << ALT_BITS)
+                | (al & ((1 << ALT_BITS) - 1));
+    }
 
-                                        if (!acid2.equals(acid1)) {
+    /*
+     * Return the first grid entry of the cell, or count if it is empty
+     */
+    private int find(long key, int from) {
+        int low = from;
+        int high = count;
+        long first = key << INDEX_BITS;
 
-                                            candidate1 = (Track) process.getTrack(acid1);
-                                            candidate2 = (Track) process.getTrack(acid2);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
 
-                                            /*
-                                             * Compare if altitude within xx
-                                             * feet
-                                             */
+            if (grid[mid] < first) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
 
-                                            if (Math.abs(altitude1 - altitude2) < (config.getIntegerSetting(Config.DISP_INSTRM_CAALT) * 100)) {
+        if (low < count && (grid[low] >>> INDEX_BITS) == key) {
+            return low;
+        }
 
-                                                /*
-                                                 * Add the acids to each others
-                                                 * list of conflicts only if
-                                                 * within x nm of each other.
-                                                 */
+        return count;
+    }
 
-                                                double range = nav.getDistance(candidate1.getPosition(), candidate2.getPosition());
+    /*
+     * Compare the tracks of two runs of the grid. When it is the same run,
+     * each pair is only compared once.
+     */
+    private void comparePairs(int start1, int end1, int start2, int end2, Hits h) {
+        boolean same = start1 == start2;
 
-                                                if (range <= (config.getIntegerSetting(Config.DISP_INSTRM_CARNG))) {
-                                                    candidate1.insertConflict(acid2, altitude2);
-                                                    candidate2.insertConflict(acid1, altitude1);
-                                                }
-                                            }
-                                        }
-                                    }
-                                }
-                            }
+        if (ahead) {
+            compareAhead(start1, end1, start2, end2, h);
+            return;
+        }
+
+        for (int n1 = start1; n1 < end1; n1++) {
+            int i = (int) (grid[n1] & INDEX_MASK);
+
+            for (int n2 = same ? n1 + 1 : start2; n2 < end2; n2++) {
+                checkNow(i, (int) (grid[n2] & INDEX_MASK), h);
+            }
+
+            h.compared += end2 - (same ? n1 + 1 : start2);
+        }
+    }
+
+    private void checkNow(int i, int j, Hits h) {
+
+        /*
+         * Compare if altitude within xx feet
+         */
+        if (Math.abs(alt[i] - alt[j]) >= separation || Math.abs(lat[i] - lat[j]) > limitLat) {
+            return;
+        }
+
+        /*
+         * Add the acids to each others list of conflicts
+         * only if within x nm of each other.
+         */
+        double dx = ux[i] - ux[j];
+        double dy = uy[i] - uy[j];
+        double dz = uz[i] - uz[j];
+        double chord2 = dx * dx + dy * dy + dz * dz;
+
+        if (chord2 <= limitChord2) {
+            h.add(i, j, 0.0F, (float) FastNavigator.fromChord2(chord2));
+        }
+    }
+
+    private void unitVector(int i) {
+        FastNavigator.toUnitVector(lat[i], lon[i], unit);
+        ux[i] = unit[0];
+        uy[i] = unit[1];
+        uz[i] = unit[2];
+    }
+
+    /*
+     * Keep the pairs of the last pass where neither track changed, then
+     * test the changed tracks against those around them.
+     */
+    private void findChanged() {
+        for (long key : pairs) {
+            if (!touched.contains((int) (key >>> 32)) && !touched.contains((int) key)) {
+                found.add(key);
+            }
+        }
+
+        retested = 0;
+
+        for (int n = 0; n < count; n++) {
+            int i = candidates[n];
+
+            if (moved[i]) {
+                movedList[(int) retested++] = i;
+            }
+        }
+
+        addFound(search(false, (int) retested));
+    }
+
+    private void addFound(Hits h) {
+        for (int k = 0; k < h.n; k++) {
+            found.add(pairKey(tracks.get(h.first[k]).getIcao(), tracks.get(h.second[k]).getIcao()));
+        }
+
+        compared += h.compared;
+    }
+
+    /*
+     * Tell the tracks of the pairs that came and went. The new pairs are
+     * linked before the old ones are unlinked, so a track that stays in
+     * conflict never shows none.
+     */
+    private void applyPairs() {
+        for (long key : found) {
+            if (!pairs.contains(key)) {
+                link(key, true);
+            }
+        }
+
+        for (long key : pairs) {
+            if (!found.contains(key)) {
+                link(key, false);
+            }
+        }
+
+        Set<Long> old = pairs;
+
+        pairs = found;
+        found = old;
+        found.clear();
+        published = Collections.unmodifiableSet(new HashSet<>(pairs));
+    }
+
+    private void link(long key, boolean insert) {
+        Track track1 = process.getTrack((int) (key >>> 32));
+        Track track2 = process.getTrack((int) key);
+
+        if (track1 == null || track2 == null || track1.getSlot() == -1 || track2.getSlot() == -1) {
+            return;         // a dropped track is unlinked by ProcessTracks
+        }
+
+        if (insert) {
+            track1.insertConflict(track2.getSlot());
+            track2.insertConflict(track1.getSlot());
+        } else {
+            track1.removeConflict(track2.getSlot());
+            track2.removeConflict(track1.getSlot());
+        }
+    }
+
+    /*
+     * Work out the closest point of approach of the pairs not yet in
+     * conflict, flying straight on, which is close enough to the great
+     * circle over the look-ahead. Each track of the first run is flown
+     * against the whole of the second run at once, then the few that come
+     * within range are picked out, and their altitudes compared at that time.
+     */
+    private void compareAhead(int start1, int end1, int start2, int end2, Hits h) {
+        boolean same = start1 == start2;
+        double limit2 = (double) limit * limit;
+
+        for (int n1 = start1; n1 < end1; n1++) {
+            int from = same ? n1 + 1 : start2;
+            int length = end2 - from;
+
+            if (length <= 0) {
+                continue;
+            }
+
+            h.reserve(length);
+            LookAheadKernel.closestApproach(px[n1], py[n1], pz[n1], qx[n1], qy[n1], qz[n1],
+                    px, py, pz, qx, qy, qz, from, end2, h.times, h.ranges);
+
+            for (int k = 0; k < length; k++) {
+                double t = h.times[k];
+
+                if (t > 0.0 && t <= look && h.ranges[k] <= limit2) {
+                    int n2 = from + k;
+
+                    if (Math.abs(aheadAlt[n1] - aheadAlt[n2] + (climb[n1] - climb[n2]) * t) < separation) {
+                        int i = (int) (grid[n1] & INDEX_MASK);
+                        int j = (int) (grid[n2] & INDEX_MASK);
+
+                        if (!tracks.get(i).hasConflict(tracks.get(j).getSlot())) {
+                            h.add(i, j, (float) t, (float) Math.sqrt(h.ranges[k]));
                         }
                     }
-                } else {
-                    /*
-                     * CA Turned Off Delete all the old conflicts per each track
-                     */
+                }
+            }
+
+            h.compared += length;
+        }
+    }
+
+    /*
+     * Fly each pair on for the look-ahead. The grid is made big enough that
+     * two tracks closing at the highest speeds and vertical rates seen are
+     * still in neighbouring cells.
+     *
+     * Only the speeds and rates up to GRID_SPEED and GRID_RATE size the
+     * grid, so one bad report can't make the cells hundreds of miles across
+     * and the pass compare every pair. The few tracks faster than that are
+     * moved to the end of the grid, out of the cell search, and compared
+     * with every other track instead.
+     */
+    private void findApproaches(float[] gs, float[] gt, long now) {
+        double maxSpeed = 0.0;
+        int maxRate = 0;
+        int outside = 0;
+
+        for (int n = 0; n < count; n++) {
+            int i = candidates[n];
+
+            soonest[i] = Float.MAX_VALUE;
 
-                    for (Track track : tracks) {
-                        track.removeAllConflict();
+            if (isOutside(gs[i], vr[i])) {
+                outside++;
+            } else {
+                maxSpeed = Math.max(maxSpeed, speedOf(gs[i]));
+                maxRate = Math.max(maxRate, Math.abs(vr[i]));
+            }
+        }
+
+        double reach = limit + 2.0 * maxSpeed * look;
+        int deep = separation + (int) (2L * maxRate * look / 60L);
+
+        ahead = true;
+        buildGrid(reach / 60.0, deep);
+
+        if (outside > 0) {
+            for (int n = 0; n < count; n++) {
+                int i = (int) (grid[n] & INDEX_MASK);
+
+                if (isOutside(gs[i], vr[i])) {
+                    grid[n] = (OUTSIDE << INDEX_BITS) | i;
+                }
+            }
+
+            Arrays.sort(grid, 0, count);
+        }
+
+        /*
+         * Copy each track into grid order. The velocity is the speed along
+         * the track, east and north at the track's position.
+         */
+        for (int n = 0; n < count; n++) {
+            int i = (int) (grid[n] & INDEX_MASK);
+            double phi = Math.toRadians(lat[i]);
+            double lambda = Math.toRadians(lon[i]);
+            double sinLat = Math.sin(phi);
+            double cosLat = Math.cos(phi);
+            double sinLon = Math.sin(lambda);
+            double cosLon = Math.cos(lambda);
+            double rad = Math.toRadians(gt[i]);
+            double speed = speedOf(gs[i]);
+            double east = speed * Math.sin(rad);
+            double north = speed * Math.cos(rad);
+
+            px[n] = ux[i] * FastNavigator.EARTH_RADIUS_NM;
+            py[n] = uy[i] * FastNavigator.EARTH_RADIUS_NM;
+            pz[n] = uz[i] * FastNavigator.EARTH_RADIUS_NM;
+            qx[n] = cosLon * east - sinLat * sinLon * north;
+            qy[n] = cosLat * north;
+            qz[n] = -sinLon * east - sinLat * cosLon * north;
+            aheadAlt[n] = alt[i];
+            climb[n] = vr[i] / 60.0;
+        }
+
+        /*
+         * The cell search only sees the tracks inside the grid, and the
+         * tracks outside are compared with all of them, and each other
+         */
+        int total = count;
+        int inside = total - outside;
+
+        count = inside;
+        Hits h = search(true, inside);
+        count = total;
+
+        if (outside > 0) {
+            compareAhead(inside, total, 0, inside, h);
+            compareAhead(inside, total, inside, total, h);
+        }
+
+        ahead = false;
+        compared += h.compared;
+        predicted = h.n;
+
+        for (int k = 0; k < h.n; k++) {
+            int i = h.first[k];
+            int j = h.second[k];
+            float t = h.time[k];
+
+            if (t < soonest[i]) {
+                soonest[i] = t;
+                soonestRange[i] = h.range[k];
+                soonestOther[i] = j;
+            }
+
+            if (t < soonest[j]) {
+                soonest[j] = t;
+                soonestRange[j] = h.range[k];
+                soonestOther[j] = i;
+            }
+        }
+
+        for (int n = 0; n < count; n++) {
+            int i = candidates[n];
+            Track track = tracks.get(i);
+
+            if (soonest[i] != Float.MAX_VALUE) {
+                int seconds = Math.round(soonest[i]);
+                LatLon p = track.getFuturePosition(track, seconds, track.getUseComputed());
+
+                track.setClosestApproach(new ClosestApproach(now + (long) (soonest[i] * 1000.0), soonestRange[i], p,
+                        tracks.get(soonestOther[i]).getAcid()));
+            } else if (track.getClosestApproach() != null) {
+                track.setClosestApproach(null);
+            }
+        }
+    }
+
+    /*
+     * The ground speed in nautical miles per second. NaN, from no speed
+     * reported, is taken as standing still.
+     */
+    private static double speedOf(float gs) {
+        return (gs > 0.0f) ? gs / 3600.0 : 0.0;
+    }
+
+    private static boolean isOutside(float gs, int rate) {
+        return (gs > GRID_SPEED) || (Math.abs(rate) > GRID_RATE);
+    }
+
+    /*
+     * The tracks that aren't candidates any more have no predicted conflict,
+     * and none of them do when the look-ahead is off
+     */
+    private void clearApproaches(int size, boolean all) {
+        for (int i = 0; i < size; i++) {
+            Track track = tracks.get(i);
+            int slot = track.getSlot();
+
+            if ((all || slot < 0 || indexOfSlot[slot] != i) && track.getClosestApproach() != null) {
+                track.setClosestApproach(null);
+            }
+        }
+    }
+
+    /**
+     * Method to return the work done by the last pass, for logging
+     *
+     * @return a String representing the candidates, pairs compared and conflicts
+     */
+    public String getStatistics() {
+        return String.format("Conflict: %d candidates, %d tested again, %d pairs compared, %d in conflict, %d predicted,"
+                + " pass %.3f ms%s max %.3f ms",
+                count, retested, compared, published.size(), predicted,
+                passTime / 1.0E6, passSplit ? " split" : "", maxPassTime / 1.0E6);
+    }
+
+    class ConflictStage extends TickStage {
+
+        String settings = "";
+
+        ConflictStage() {
+            super("conflict", TickScheduler.PHASE_CONFLICT, (int) (RATE / TickScheduler.TICK));
+        }
+
+        @Override
+        public void end(long now) {
+            boolean enabled = config.getBooleanSetting(Config.DISP_INSTRM_CA);
+
+            String s = enabled + "," + config.getIntegerSetting(Config.DISP_INSTRM_CAFLOOR)
+                    + "," + config.getIntegerSetting(Config.DISP_INSTRM_CAALT)
+                    + "," + config.getIntegerSetting(Config.DISP_INSTRM_CARNG)
+                    + "," + config.getIntegerSetting(Config.DISP_INSTRM_CALOOK);
+
+            /*
+             * With new settings every pair is tested again
+             */
+            if (!s.equals(settings)) {
+                settings = s;
+                full = true;
+            }
+
+            /*
+             * Nothing moved and nothing was changed, so the conflicts found
+             * last time still stand
+             */
+            if (full == false && touched.isEmpty()) {
+                return;
+            }
+
+            /*
+             * Determine if there are any other tracks within x nautical miles.
+             * Those tracks that are within that range are checked to see if they
+             * are less than xxxx feet apart in altitude. If they are, the track
+             * is added to the conflict table of that track.
+             */
+            TrackSnapshot snapshot = process.getSnapshot();
+            int size = snapshot.getPositionCount();
+
+            tracks = snapshot.getTracksWithPositions();
+            lat = snapshot.getLatitudes();
+            lon = snapshot.getLongitudes();
+            alt = snapshot.getAltitudes();
+            vr = snapshot.getVerticalRates();
+
+            int floor = config.getIntegerSetting(Config.DISP_INSTRM_CAFLOOR) * 100;
+
+            separation = config.getIntegerSetting(Config.DISP_INSTRM_CAALT) * 100;
+            limit = config.getIntegerSetting(Config.DISP_INSTRM_CARNG);
+            limitLat = limit / 60.0;        // degrees of latitude
+            limitChord2 = FastNavigator.toChord2(limit);
+            look = config.getIntegerSetting(Config.DISP_INSTRM_CALOOK) * 60;
+
+            if (candidates.length < size) {
+                candidates = new int[size];
+                grid = new long[size];
+                px = new double[size];
+                py = new double[size];
+                pz = new double[size];
+                qx = new double[size];
+                qy = new double[size];
+                qz = new double[size];
+                aheadAlt = new double[size];
+                climb = new double[size];
+                ux = new double[size];
+                uy = new double[size];
+                uz = new double[size];
+                soonest = new float[size];
+                soonestRange = new float[size];
+                soonestOther = new int[size];
+                moved = new boolean[size];
+                movedList = new int[size];
+            }
+
+            int slots = 0;
+
+            for (int i = 0; i < size; i++) {
+                slots = Math.max(slots, tracks.get(i).getSlot() + 1);
+            }
+
+            if (indexOfSlot.length < slots) {
+                indexOfSlot = new int[slots];
+            }
+
+            Arrays.fill(indexOfSlot, 0, slots, -1);
+
+            /*
+             * Make a list of the tracks above the floor, which aren't dim.
+             * A dim track has no conflicts.
+             */
+            count = 0;
+
+            if (enabled) {
+                for (int i = 0; i < size; i++) {
+                    Track track = tracks.get(i);
+
+                    if (alt[i] >= floor && track.isDim() == false && track.getSlot() >= 0) {
+                        candidates[count++] = i;
+                        indexOfSlot[track.getSlot()] = i;
+                        moved[i] = full || touched.contains(track.getIcao());
+                        unitVector(i);
                     }
                 }
+            }
+
+            compared = predicted = retested = 0L;
+            ahead = false;
+            passSplit = false;
+
+            long start = System.nanoTime();
+
+            try {
+                buildGrid(limitLat, separation);
+
+                if (full) {
+                    addFound(search(true, count));
+                    retested = count;
+                } else {
+                    findChanged();
+                }
+
+                applyPairs();
+                clearApproaches(size, enabled == false || look == 0);
+
+                if (enabled && look > 0) {
+                    findApproaches(snapshot.getGroundSpeeds(), snapshot.getGroundTracks(), now);
+                }
             } catch (Exception e) {
                 System.err.println("Conflict::run2 exception " + e.toString());
+                found.clear();
             }
+
+            passTime = System.nanoTime() - start;
+            maxPassTime = Math.max(maxPassTime, passTime);
+
+            full = false;
+            touched.clear();
+
+            tracks = null;          // don't hold on to the snapshot
+            lat = lon = null;
+            alt = vr = null;
+        }
+    }
+
+    /*
+     * Split the range in two until it is no bigger than the grain. The
+     * halves are joined left then right, so the pairs come back in the
+     * order a single thread would find them.
+     */
+    class SearchTask extends RecursiveTask<Hits> {
+
+        private static final long serialVersionUID = 1L;
+        //
+        private final boolean runs;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        SearchTask(boolean r, int f, int t, int g) {
+            runs = r;
+            from = f;
+            to = t;
+            grain = g;
+        }
+
+        @Override
+        protected Hits compute() {
+            if (to - from <= grain) {
+                Hits h = new Hits();
+
+                if (runs) {
+                    searchRuns(from, to, h);
+                } else {
+                    searchMoved(from, to, h);
+                }
+
+                return h;
+            }
+
+            int mid = (from + to) >>> 1;
+            SearchTask right = new SearchTask(runs, mid, to, grain);
+
+            right.fork();
+
+            Hits left = new SearchTask(runs, from, mid, grain).compute();
+
+            left.append(right.join());
+
+            return left;
+        }
+    }
+
+    /*
+     * The pairs found by one task, as snapshot indexes, with the time and
+     * range of a predicted approach, and the scratch arrays of its look-ahead
+     */
+    static final class Hits {
+
+        int[] first = new int[16];
+        int[] second = new int[16];
+        float[] time = new float[16];
+        float[] range = new float[16];
+        int n;
+        long compared;
+        double[] times = new double[64];        // scratch for a run of the look-ahead
+        double[] ranges = new double[64];
+
+        void reserve(int size) {
+            if (times.length < size) {
+                times = new double[Math.max(size, times.length * 2)];
+                ranges = new double[times.length];
+            }
+        }
+
+        void add(int i, int j, float t, float r) {
+            if (n == first.length) {
+                grow(n * 2);
+            }
+
+            first[n] = i;
+            second[n] = j;
+            time[n] = t;
+            range[n] = r;
+            n++;
+        }
+
+        void append(Hits h) {
+            if (n + h.n > first.length) {
+                grow(n + h.n);
+            }
+
+            System.arraycopy(h.first, 0, first, n, h.n);
+            System.arraycopy(h.second, 0, second, n, h.n);
+            System.arraycopy(h.time, 0, time, n, h.n);
+            System.arraycopy(h.range, 0, range, n, h.n);
+            n += h.n;
+            compared += h.compared;
+        }
+
+        private void grow(int size) {
+            first = Arrays.copyOf(first, size);
+            second = Arrays.copyOf(second, size);
+            time = Arrays.copyOf(time, size);
+            range = Arrays.copyOf(range, size);
         }
     }
 }
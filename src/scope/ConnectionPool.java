@@ -0,0 +1,208 @@
+package scope;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * A small bounded pool of database connections.
+ *
+ * Connections are opened as they are needed, up to the pool size. After that
+ * a caller waits for one to be released. A new connection is opened outside
+ * the lock, so a slow server doesn't hold up the callers releasing theirs.
+ *
+ * Each connection keeps its own cache of prepared statements, so the driver
+ * doesn't prepare the same SQL each poll. The URL asks for server side
+ * statements, so the server doesn't parse it each poll either.
+ */
+public final class ConnectionPool {
+
+    private final String url;
+    private final String login;
+    private final String password;
+    private final int size;
+    private final ArrayDeque<PooledConnection> idle;
+    private int open;
+    private int active;
+    private int peak;
+    private boolean closed;
+    //
+    private long borrows;
+    private long waitTime;      // nanoseconds
+    private long maxWait;       // nanoseconds
+    private final AtomicLong prepared;
+    private final AtomicLong reused;
+
+    /**
+     * Create a pool, and open the first connection to make sure the database
+     * is there.
+     *
+     * @param cf the configuration holding the database URL and login
+     * @param s an integer representing the most connections to open
+     * @throws SQLException if the database can't be opened
+     */
+    public ConnectionPool(Config cf, int s) throws SQLException {
+        url = cf.getDatabaseURL();
+        login = cf.getDatabaseLogin();
+        password = cf.getDatabasePassword();
+        size = Math.max(1, s);
+        idle = new ArrayDeque<>(size);
+        open = active = peak = 0;
+        closed = false;
+        borrows = waitTime = maxWait = 0L;
+        prepared = new AtomicLong();
+        reused = new AtomicLong();
+
+        idle.push(new PooledConnection(DriverManager.getConnection(url, login, password), this));
+        open++;
+    }
+
+    /**
+     * Method to borrow a connection, waiting if they are all in use. It must
+     * be given back with release().
+     *
+     * @return a PooledConnection
+     * @throws SQLException if the pool is closed, or a connection can't be opened
+     */
+    public PooledConnection getConnection() throws SQLException {
+        PooledConnection pc;
+        long start = System.nanoTime();
+
+        synchronized (this) {
+            while (idle.isEmpty() && (open >= size) && (closed == false)) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new SQLException("ConnectionPool::getConnection interrupted");
+                }
+            }
+
+            if (closed) {
+                throw new SQLException("ConnectionPool::getConnection pool is closed");
+            }
+
+            pc = idle.poll();
+
+            if (pc == null) {
+                open++;         // hold the place while it opens
+            }
+        }
+
+        if (pc == null) {
+            try {
+                pc = new PooledConnection(DriverManager.getConnection(url, login, password), this);
+            } catch (SQLException e) {
+                synchronized (this) {
+                    open--;
+                    notifyAll();
+                }
+
+                throw e;
+            }
+        }
+
+        long wait = System.nanoTime() - start;
+
+        synchronized (this) {
+            borrows++;
+            waitTime += wait;
+            maxWait = Math.max(maxWait, wait);
+            active++;
+            peak = Math.max(peak, active);
+        }
+
+        return pc;
+    }
+
+    /**
+     * Method to give back a borrowed connection. A connection that was closed
+     * (the server went away) is thrown out, and a new one opened next time.
+     *
+     * @param pc the PooledConnection to give back, may be null
+     */
+    public synchronized void release(PooledConnection pc) {
+        if (pc == null) {
+            return;
+        }
+
+        active--;
+
+        if (closed || pc.isClosed()) {
+            pc.close();
+            open--;
+        } else {
+            idle.push(pc);
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Close the idle connections now, and the busy ones as they are released
+     */
+    public synchronized void close() {
+        closed = true;
+
+        while (!idle.isEmpty()) {
+            idle.pop().close();
+            open--;
+        }
+
+        notifyAll();
+    }
+
+    /*
+     * Counted by the connections as they prepare statements
+     */
+    void countStatement(boolean cached) {
+        if (cached) {
+            reused.incrementAndGet();
+        } else {
+            prepared.incrementAndGet();
+        }
+    }
+
+    public synchronized int getActiveCount() {
+        return active;
+    }
+
+    public synchronized int getOpenCount() {
+        return open;
+    }
+
+    /**
+     * Method to return the average time spent waiting for a connection
+     *
+     * @return a double representing the wait in milliseconds
+     */
+    public synchronized double getAverageWait() {
+        if (borrows == 0L) {
+            return 0.0;
+        }
+
+        return (waitTime / (double) borrows) / 1.0E6;
+    }
+
+    public long getStatementsPrepared() {
+        return prepared.get();
+    }
+
+    public long getStatementsReused() {
+        return reused.get();
+    }
+
+    /**
+     * Method to return the pool metrics for logging
+     *
+     * @return a String representing the pool metrics
+     */
+    public synchronized String getStatistics() {
+        return String.format("ConnectionPool: %d of %d open, %d active (peak %d), "
+                + "%d borrows, wait avg %.3f ms max %.3f ms, "
+                + "statements %d prepared %d reused",
+                open, size, active, peak,
+                borrows, getAverageWait(), maxWait / 1.0E6,
+                prepared.get(), reused.get());
+    }
+}
@@ -67,6 +67,7 @@ public final class DisplayConfigPanel extends JPanel
         addIntegerButton(menu, Config.DISP_INSTRM_CAFLOOR, "CAFLR");
         addIntegerButton(menu, Config.DISP_INSTRM_CAALT, "CAALT");
         addIntegerButton(menu, Config.DISP_INSTRM_CARNG, "CARNG");
+        addIntegerButton(menu, Config.DISP_INSTRM_CALOOK, "CALOOK");
 
         addIntegerButton(menu, Config.DISP_INSTRM_HIGH, "HIGH");
         addIntegerButton(menu, Config.DISP_INSTRM_LOW, "LOW");
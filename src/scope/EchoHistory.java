@@ -0,0 +1,152 @@
+package scope;
+
+/*
+ * Echo history of a single track.
+ *
+ * The echoes are kept in a ring of parallel primitive arrays, so the renderer
+ * can paint them every frame without creating objects, or going back to the
+ * database. The ring starts small and doubles up to MAX_ECHOES, after which
+ * the oldest echo is overwritten by the newest.
+ */
+public final class EchoHistory {
+
+    public static final int MAX_ECHOES = 1024;
+    private static final int MIN_ECHOES = 32;
+    //
+    private float[] latitude;
+    private float[] longitude;
+    private int[] altitude;
+    private byte[] verticalTrend;
+    private long[] utcdetect;
+    //
+    private int head;           // next slot to write
+    private int count;
+    private long lastTime;
+
+    public EchoHistory() {
+        allocate(MIN_ECHOES);
+        head = 0;
+        count = 0;
+        lastTime = 0L;
+    }
+
+    private void allocate(int size) {
+        latitude = new float[size];
+        longitude = new float[size];
+        altitude = new int[size];
+        verticalTrend = new byte[size];
+        utcdetect = new long[size];
+    }
+
+    /**
+     * Method to store a new echo in the history
+     *
+     * @param lat a float representing the echo latitude
+     * @param lon a float representing the echo longitude
+     * @param alt an integer representing the echo altitude in feet
+     * @param trend an integer representing the vertical trend -1, 0, or 1
+     * @param time a long representing the echo detect time in milliseconds
+     */
+    public synchronized void addEcho(float lat, float lon, int alt, int trend, long time) {
+        int size = utcdetect.length;
+
+        if (count == size && size < MAX_ECHOES) {
+            grow(size * 2);
+            size = utcdetect.length;
+        }
+
+        latitude[head] = lat;
+        longitude[head] = lon;
+        altitude[head] = alt;
+        verticalTrend[head] = (byte) Integer.signum(trend);
+        utcdetect[head] = time;
+
+        head = (head + 1) % size;
+
+        if (count < size) {
+            count++;
+        }
+
+        if (time > lastTime) {
+            lastTime = time;
+        }
+    }
+
+    /*
+     * Unroll the ring so the oldest echo is at index zero
+     */
+    private void grow(int size) {
+        float[] lat = latitude;
+        float[] lon = longitude;
+        int[] alt = altitude;
+        byte[] trend = verticalTrend;
+        long[] time = utcdetect;
+        int old = time.length;
+        int tail = (head - count + old) % old;
+
+        allocate(size);
+
+        for (int i = 0; i < count; i++) {
+            int j = (tail + i) % old;
+
+            latitude[i] = lat[j];
+            longitude[i] = lon[j];
+            altitude[i] = alt[j];
+            verticalTrend[i] = trend[j];
+            utcdetect[i] = time[j];
+        }
+
+        head = count;
+    }
+
+    /**
+     * Method to copy the echoes detected after the given time, and within the
+     * given altitude window, into the callers arrays. The most recent echo is
+     * copied first.
+     *
+     * @param since a long representing the oldest detect time wanted
+     * @param low an integer representing the lowest altitude wanted in feet
+     * @param high an integer representing the highest altitude wanted in feet
+     * @param lat an array to receive the latitudes
+     * @param lon an array to receive the longitudes
+     * @param trend an array to receive the vertical trends
+     * @return an integer representing the number of echoes copied
+     */
+    public synchronized int getEchoes(long since, int low, int high, double[] lat, double[] lon, int[] trend) {
+        int size = utcdetect.length;
+        int max = Math.min(lat.length, Math.min(lon.length, trend.length));
+        int n = 0;
+
+        for (int i = 1; i <= count && n < max; i++) {
+            int j = (head - i + size) % size;
+
+            if (utcdetect[j] > since && altitude[j] >= low && altitude[j] <= high) {
+                lat[n] = latitude[j];
+                lon[n] = longitude[j];
+                trend[n] = verticalTrend[j];
+                n++;
+            }
+        }
+
+        return n;
+    }
+
+    /**
+     * Method to return the detect time of the most recent echo
+     *
+     * @return a long representing the time in milliseconds, or 0 if empty
+     */
+    public synchronized long getLastTime() {
+        return lastTime;
+    }
+
+    public synchronized int getEchoCount() {
+        return count;
+    }
+
+    public synchronized void clear() {
+        head = 0;
+        count = 0;
+        lastTime = 0L;
+    }
+}
@@ -1,7 +1,15 @@
 package scope;
 
+import gui.MapGeoData;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import javax.swing.JFrame;
 import javax.swing.UIManager;
 import javax.swing.UnsupportedLookAndFeelException;
@@ -13,43 +21,42 @@ import javax.swing.UnsupportedLookAndFeelException;
  */
 public final class Main {
 
-    private static ScopeFrame f;
-    private static TrackDatabase db;
+    private static final List<ScopeFrame> frames = new ArrayList<>();     // guarded by itself
+    private static final Map<List<Object>, MapGeoData> maps = new HashMap<>();
+    private static TrackSource source;
     private static ProcessTracks procTrack;
+    private static Conflict conflict;
+    private static TickScheduler scheduler;
     //
-    private static String configFile = "trackview.conf";
+    private static final List<String> configFiles = new ArrayList<>();
     private static String mapFile = "map.dat";
     private static Config config;
 
     public static void main(String[] args) {
         /*
          * The user may have a commandline option as to which config file to
-         * use, and which map file to use. This is useful if you want more than
-         * one Viewer running at a time.
+         * use, and which map file to use. Each -c config file given opens
+         * its own window, such as one for high altitude and one for low.
+         * All of the windows share the same tracks, and the first config
+         * file says where the tracks come from, and sets the track and
+         * conflict settings for all of them.
          */
 
-        try {
-            switch (args[0]) {
+        for (int i = 0; i < args.length - 1; i += 2) {
+            switch (args[i]) {
                 case "-c":
                 case "/c":
-                    configFile = args[1];
+                    configFiles.add(args[i + 1]);
                     break;
                 case "-m":
                 case "/m":
-                    mapFile = args[1];
+                    mapFile = args[i + 1];
                     break;
             }
-            switch (args[2]) {
-                case "-c":
-                case "/c":
-                    configFile = args[3];
-                    break;
-                case "-m":
-                case "/m":
-                    mapFile = args[3];
-                    break;
-            }
-        } catch (Exception e) {
+        }
+
+        if (configFiles.isEmpty()) {
+            configFiles.add("trackview.conf");
         }
 
         Locale.setDefault(Locale.US);
@@ -60,31 +67,106 @@ public final class Main {
             // Take whatever you get then
         }
 
-        config = new Config(configFile, mapFile);
+        config = new Config(configFiles.get(0), mapFile);
         System.out.println("Using config file: " + config.getOSConfPath());
 
         procTrack = new ProcessTracks(config);
-        db = new TrackDatabase(procTrack, config);
 
-        db.startDatabase();
-        
-        Runtime.getRuntime().addShutdownHook(new Shutdown(procTrack, db));
+        /*
+         * All of the timed work is run by one scheduler
+         */
+        scheduler = new TickScheduler();
+        procTrack.start(scheduler);
+
+        /*
+         * The tracks can come from the database, a decoder
+         * sending SBS-1 messages, or a recorded SBS-1 file.
+         * Config has already turned anything else into database.
+         */
+        switch (config.getSourceType()) {
+            case "sbs":
+                source = new SBSTrackSource(procTrack, config);
+                break;
+            case "replay":
+                source = new ReplayTrackSource(procTrack, config);
+                break;
+            case "database":
+            default:
+                source = new TrackDatabase(procTrack, config, scheduler);
+        }
+
+        procTrack.setEchoFromPosition(!source.hasEchoHistory());
+        source.start();
 
-        f = new ScopeFrame(config, db, procTrack);        // Create a new display Panel
-        f.setTitle(config.getHomeName());
-        f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        f.setSize(config.getScreenWidth(), config.getScreenHeight());
+        conflict = new Conflict(procTrack, config, scheduler);
+        scheduler.start();
 
-        f.setVisible(true);
+        Runtime.getRuntime().addShutdownHook(new Shutdown(procTrack, source, scheduler, conflict));
 
-        MapFileParser mfp = new MapFileParser(config);
+        for (int i = 0; i < configFiles.size(); i++) {
+            Config cf = config;
+
+            if (i > 0) {
+                cf = new Config(configFiles.get(i), mapFile);
+                cf.setSharedSettings(config);
+                System.out.println("Using config file: " + cf.getOSConfPath());
+            }
+
+            ScopeFrame f = new ScopeFrame(cf, procTrack, scheduler);        // Create a new display Panel
+            f.setTitle(cf.getHomeName());
+            f.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+            f.setSize(cf.getScreenWidth(), cf.getScreenHeight());
+
+            /*
+             * Closing a window leaves the others open, until the last
+             */
+            f.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosed(WindowEvent e) {
+                    synchronized (frames) {
+                        frames.remove(f);
+
+                        if (frames.isEmpty() == false) {
+                            return;
+                        }
+                    }
+
+                    System.exit(0);
+                }
+            });
+
+            synchronized (frames) {
+                frames.add(f);
+            }
+
+            f.setVisible(true);
+            f.setMapData(getMapData(cf));
+        }
+    }
+
+    /*
+     * The windows using the same map file and colors share the one parse
+     * of it. The map data isn't changed once it is read.
+     */
+    private static MapGeoData getMapData(Config cf) {
+        List<Object> key = Arrays.asList(cf.getMapPath(), Arrays.asList(cf.getColorMap().clone()));
+
+        if (maps.containsKey(key)) {
+            return maps.get(key);
+        }
+
+        MapFileParser mfp = new MapFileParser(cf);
+        MapGeoData md;
 
         try {
             mfp.parse();
-            f.setMapData(mfp.getMapData());
+            md = mfp.getMapData();
         } catch (IOException e) {
             System.out.println("TrackView could not parse MAP data");
-            f.setMapData(null);
+            md = null;
         }
+
+        maps.put(key, md);
+        return md;
     }
 }
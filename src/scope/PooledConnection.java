@@ -0,0 +1,73 @@
+package scope;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * A database connection borrowed from the ConnectionPool.
+ *
+ * Only one thread uses it at a time, so the statement cache needs no locking.
+ * The statements belong to the connection, and must not be closed by the
+ * caller. Only their result sets are closed.
+ */
+public final class PooledConnection {
+
+    private final Connection db;
+    private final ConnectionPool pool;
+    private final Map<String, PreparedStatement> statements;
+
+    PooledConnection(Connection con, ConnectionPool p) {
+        db = con;
+        pool = p;
+        statements = new HashMap<>();
+    }
+
+    /**
+     * Method to return the prepared statement for the given SQL, preparing it
+     * the first time it is used on this connection.
+     *
+     * @param sql a String representing the SQL with ? parameters
+     * @return a PreparedStatement
+     * @throws SQLException if the statement can't be prepared
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement ps = statements.get(sql);
+
+        if (ps == null || ps.isClosed()) {
+            ps = db.prepareStatement(sql);
+            statements.put(sql, ps);
+            pool.countStatement(false);
+        } else {
+            pool.countStatement(true);
+        }
+
+        return ps;
+    }
+
+    boolean isClosed() {
+        try {
+            return db.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    void close() {
+        for (PreparedStatement ps : statements.values()) {
+            try {
+                ps.close();
+            } catch (SQLException e) {
+            }
+        }
+
+        statements.clear();
+
+        try {
+            db.close();
+        } catch (SQLException e) {
+        }
+    }
+}
@@ -1,22 +1,34 @@
 package scope;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.ConcurrentHashMap;
-import math.OrthographicNavigator;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
 
 public final class ProcessTracks {
 
-    private static final long RATE = 1500L;                 // 1.5 second
+    private static final long RATE = 1000L;                 // 1 second
+    private static final int QUEUE_SIZE = 64;               // batches
+    private static final long SITE_STALE = 2L * Track.ECHO_INTERVAL;  // two scans
     //
     private final Config config;
     //
-    private final ConcurrentHashMap<String, Track> tracks;
-    private final OrthographicNavigator nav;
-    private final Timer timer1, timer2;
-    private final TimerTask task1, task2;
+    private final TrackStore tracks;
+    private final TrackColumns columns;
+    private final LinkedBlockingQueue<List<TrackUpdate>> queue;
+    private final TickStage ingest, expire, notify;
+    private final TimingWheel dimWheel, dropWheel;
+    private long dimTime, dropTime;
+    private TickScheduler scheduler;
+    private boolean echoFromPosition;
+    private RegistrationIndex registrationIndex;
+    //
+    private final CopyOnWriteArrayList<TrackListener> listeners;
+    private final List<Track> pending;          // tracks with events not yet sent
+    //
+    private volatile TrackSnapshot snapshot;
+    private volatile boolean changed;
 
     /**
      * Class constructor
@@ -25,242 +37,569 @@ public final class ProcessTracks {
      */
     public ProcessTracks(Config c) {
         config = c;
-        tracks = new ConcurrentHashMap<>();
-        nav = new OrthographicNavigator();
-
-        task1 = new TimeoutThread1();
-        timer1 = new Timer();
-        timer1.scheduleAtFixedRate(task1, 0L, RATE);
+        tracks = new TrackStore();
+        columns = new TrackColumns();
+        echoFromPosition = false;
+        registrationIndex = null;
+        snapshot = new TrackSnapshot(0L, new Track[0], new Track[0],
+                new double[0], new double[0], new int[0], new float[0], new float[0], new int[0], new long[0]);
+        changed = false;
+        queue = new LinkedBlockingQueue<>(QUEUE_SIZE);
+        scheduler = null;
+        listeners = new CopyOnWriteArrayList<>();
+        pending = new ArrayList<>();
+
+        dimWheel = new TimingWheel();
+        dropWheel = new TimingWheel();
+        dimTime = config.getIntegerSetting(Config.DISP_INSTRM_DIM) * 1000L;
+        dropTime = config.getIntegerSetting(Config.DISP_INSTRM_DROP) * 1000L;
+
+        ingest = new IngestStage();
+        expire = new ExpireStage();
+        notify = new NotifyStage();
+    }
 
-        task2 = new TimeoutThread2();
-        timer2 = new Timer();
-        timer2.scheduleAtFixedRate(task2, 5L, RATE);
+    /**
+     * Method to add the ingest and expire stages to the scheduler
+     *
+     * @param ts the TickScheduler to run them
+     */
+    public void start(TickScheduler ts) {
+        scheduler = ts;
+        scheduler.addStage(ingest);
+        scheduler.addStage(expire);
+        scheduler.addStage(notify);
     }
 
     public void close() {
-        timer1.cancel();
-        timer2.cancel();
+        if (scheduler != null) {
+            scheduler.removeStage(ingest);
+            scheduler.removeStage(expire);
+            scheduler.removeStage(notify);
+        }
     }
 
-    public boolean hasTrack(String acid) {
-        synchronized (tracks) {
+    public void addTrackListener(TrackListener l) {
+        listeners.addIfAbsent(l);
+    }
+
+    public void removeTrackListener(TrackListener l) {
+        listeners.remove(l);
+    }
+
+    /**
+     * Sources that don't provide an echo history can have the echoes made
+     * from the track positions instead.
+     *
+     * @param val a boolean representing whether to make echoes from positions
+     */
+    public void setEchoFromPosition(boolean val) {
+        echoFromPosition = val;
+    }
+
+    /**
+     * When the whole modestable is preloaded, new tracks are given their
+     * registration from the index.
+     *
+     * @param val the RegistrationIndex, or null for none
+     */
+    public void setRegistrationIndex(RegistrationIndex val) {
+        registrationIndex = val;
+    }
+
+    /**
+     * A batch of target reports arrives from a TrackSource thread, and is
+     * queued for the next ingest stage. If the queue is full this waits, so a
+     * fast replay can't run away from the display.
+     *
+     * @param updates a List representing the target reports, which is copied
+     */
+    public void queueUpdates(List<TrackUpdate> updates) {
+        try {
+            queue.put(new ArrayList<>(updates));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();     // the source is closing, let it see
+        }
+    }
+
+    /**
+     * A batch of target reports comes here to update the tracks. This is
+     * called on the scheduler thread, by the ingest stage or a TrackSource
+     * stage.
+     *
+     * @param updates a List representing the target reports
+     */
+    public void updateTracks(List<TrackUpdate> updates) {
+        applyUpdates(updates);
+        publish();
+    }
+
+    private void applyUpdates(List<TrackUpdate> updates) {
+        for (TrackUpdate update : updates) {
             try {
-                return tracks.containsKey(acid);
-            } catch (NullPointerException e) {
-                System.err.println("ProcessTracks::hasTrack Exception during containsKey " + e.toString());
-                return false;
+                updateTrack(update);
+            } catch (Exception e) {
+                System.err.println("ProcessTracks::updateTracks Exception during update " + e.toString());
             }
         }
     }
 
-    public int getTrackCount() {
-        synchronized (tracks) {
-            return tracks.size();
+    private void updateTrack(TrackUpdate u) {
+        Track track;
+
+        /*
+         * Find the track, or make a new one, in one look in the table
+         */
+        track = tracks.upsert(u.icao, u.acid, config);
+
+        if (track == null) {
+            return;     // no acid, or out of keys, counted by TrackStore
         }
-    }
 
-    public Track getTrack(String acid) {
-        synchronized (tracks) {
-            try {
-                return (Track) tracks.get(acid);
-            } catch (NullPointerException e) {
-                System.err.println("ProcessTracks::getTrack Exception during get " + e.toString());
-                return (Track) null;
+        if (track.getSlot() == -1) {
+            track.setSlot(columns.allocate());
+            columns.update(track);
+            addEvent(track, TrackChanges.ADDED);
+            changed = true;
+        }
+
+        if (registrationIndex != null && track.getRegistration().isEmpty()) {
+            String reg = registrationIndex.getRegistration(u.acid);
+
+            if (reg != null) {
+                track.setRegistration(reg);
+            }
+        }
+
+        if (u.resolved == false) {
+            /*
+             * The report may come from any radar, so only take it if it
+             * comes from the radar we are following, or is at least as good.
+             * A new track has no radar yet, and takes any report. Once the
+             * radar we follow has missed two scans, any radar will do.
+             */
+            if (!u.site.equals(track.getQualitySite()) && (u.quality < track.getQuality())
+                    && (u.utcupdate - track.getUpdatedTime()) < SITE_STALE) {
+                return;
+            }
+        }
+
+        long posTime = track.getUpdatedPosTime();
+        int before = track.getChangeCount();
+
+        track.setQuality(u.quality, u.site);
+        track.setUpdatedTime(u.utcupdate);
+        track.apply(u);                 // position, altitude and vector in one go
+        track.setCallsign(u.callsign);
+
+        if (u.squawk != 0) {
+            if (u.squawk < 100) {
+                track.setSquawk("00" + String.valueOf(u.squawk));
+            } else if (u.squawk < 1000) {
+                track.setSquawk("0" + String.valueOf(u.squawk));
+            } else {
+                track.setSquawk(String.valueOf(u.squawk));
+            }
+        } else {
+            track.setSquawk("0000");
+        }
+
+        track.setAlert(u.alert);
+        track.setEmergency(u.emergency);
+        track.setSPI(u.spi);
+        track.setIsOnGround(u.onGround);
+        track.addSiteID(u.site);
+
+        /*
+         * Lay down an echo every ECHO_INTERVAL if the source doesn't
+         */
+        TrackState state = track.getState();
+
+        if (echoFromPosition && (state.getUpdatedPosTime() != posTime)) {
+            EchoHistory echoes = track.getEchoHistory();
+            long time = state.getUpdatedPosTime();
+
+            if ((time - echoes.getLastTime()) >= Track.ECHO_INTERVAL) {
+                echoes.addEcho((float) state.getLatitude(), (float) state.getLongitude(),
+                        state.getAltitude(), track.getVerticalTrend(), time);
             }
         }
+
+        scheduleExpiry(track);
+        columns.update(track);
+
+        /*
+         * Only a report that changed something is passed on. The times are
+         * still kept, so the track doesn't dim or drop.
+         */
+        if (track.getChangeCount() != before) {
+            addEvent(track, (state.getUpdatedPosTime() != posTime) ? TrackChanges.MOVED : TrackChanges.CHANGED);
+            changed = true;
+        }
+    }
+
+    public boolean hasTrack(String acid) {
+        return tracks.containsKey(TrackStore.toKey(acid));
+    }
+
+    public int getTrackCount() {
+        return tracks.size();
+    }
+
+    public Track getTrack(String acid) {
+        return tracks.get(TrackStore.toKey(acid));
     }
 
     /**
-     * Method to return a collection of all tracks.
+     * Method to return a track by its address
      *
-     * @return a collection Representing all tracks.
+     * @param icao an integer representing the TrackStore key
+     * @return the Track, or null if there isn't one
      */
-    public List<Track> getTrackList() {
-        List<Track> result = new ArrayList<>();
+    public Track getTrack(int icao) {
+        return tracks.get(icao);
+    }
 
-        synchronized (tracks) {
-            result.addAll(tracks.values());
-        }
+    /**
+     * Method to return the latest snapshot of the tracks. It is never
+     * changed, so it can be read without locking.
+     *
+     * @return a TrackSnapshot representing the tracks after the last update
+     */
+    public TrackSnapshot getSnapshot() {
+        return snapshot;
+    }
 
-        return result;
+    /**
+     * Method to return a collection of all tracks.
+     *
+     * @return an unmodifiable list Representing all tracks.
+     */
+    public List<Track> getTrackList() {
+        return snapshot.getTracks();
     }
 
     /**
      * Method to return a collection of all tracks that have a non-zero
      * position.
      *
-     * @return a vector Representing all updated tracks with non-zero positions.
+     * @return an unmodifiable list Representing all updated tracks with non-zero positions.
      */
     public List<Track> getTrackListWithPositions() {
-        List<Track> result = new ArrayList<>();
-
-        synchronized (tracks) {
-            for (Track trk : tracks.values()) {
-                if (trk.getLatitude() != 0.0 && trk.getLongitude() != 0.0) {
-                    try {
-                        result.add(trk);
-                    } catch (Exception e) {
-                        System.err.println("ProcessTracks::getAllTracksWithPositions Exception during add " + e.toString());
-                    }
-                }
+        return snapshot.getTracksWithPositions();
+    }
+
+    /**
+     * Make a new snapshot for the readers, if the tracks changed since the
+     * last one. Call this after each batch of changes, rather than after
+     * each change.
+     */
+    public synchronized void publish() {
+        if (changed == false) {
+            return;
+        }
+
+        changed = false;
+
+        Track[] all = tracks.values();
+        Track[] positions = new Track[all.length];
+        int count = 0;
+
+        /*
+         * Gather the columns of the tracks with positions into dense arrays
+         */
+        double[] lat = new double[all.length];
+        double[] lon = new double[all.length];
+        int[] alt = new int[all.length];
+        float[] gs = new float[all.length];
+        float[] gt = new float[all.length];
+        int[] vr = new int[all.length];
+        long[] posTime = new long[all.length];
+
+        for (Track trk : all) {
+            int slot = trk.getSlot();
+
+            if (columns.latitude[slot] != 0.0 && columns.longitude[slot] != 0.0) {
+                positions[count] = trk;
+                lat[count] = columns.latitude[slot];
+                lon[count] = columns.longitude[slot];
+                alt[count] = columns.altitude[slot];
+                gs[count] = columns.groundSpeed[slot];
+                gt[count] = columns.groundTrack[slot];
+                vr[count] = columns.verticalRate[slot];
+                posTime[count] = columns.updatedPosTime[slot];
+                count++;
             }
         }
 
-        return result;
+        snapshot = new TrackSnapshot(snapshot.getVersion() + 1L, all, Arrays.copyOf(positions, count),
+                lat, lon, alt, gs, gt, vr, posTime);
     }
 
     /**
      * The aircraft track is received from the database and comes here to queue
-     * the data.
+     * the data. It shows in the snapshot after the next publish().
      *
      * @param acid a String representing the Aircraft ID
      * @param track an Object representing the Track data
      */
     public void addTrack(String acid, Track track) {
-        synchronized (tracks) {
-            try {
-                tracks.put(acid, track);
-            } catch (NullPointerException e) {
-                System.err.println("ProcessTracks::addTrack Exception during put " + e.toString());
-            }
+        Track old = tracks.put(TrackStore.toKey(acid), track);
+
+        if (old != null && old != track) {
+            removeConflicts(old);
+            columns.free(old.getSlot());
+            old.setSlot(-1);
+            addEvent(old, TrackChanges.DROPPED);
         }
+
+        if (track.getSlot() == -1) {
+            track.setSlot(columns.allocate());
+            addEvent(track, TrackChanges.ADDED);
+        } else {
+            addEvent(track, TrackChanges.CHANGED);
+        }
+
+        columns.update(track);
+        changed = true;
     }
 
     public void removeTrack(String acid) {
-        synchronized (tracks) {
-            if (acid != null) {
-                if (tracks.containsKey(acid) == true) {
-                    try {
-                        tracks.remove(acid);
-                    } catch (NullPointerException e) {
-                        System.err.println("ProcessTracks::removeTrack Exception during remove " + e.toString());
-                    }
-                }
-            }
+        Track old = tracks.remove(TrackStore.toKey(acid));
+
+        if (old != null) {
+            removeConflicts(old);       // before the slot can be used again
+            columns.free(old.getSlot());
+            old.setSlot(-1);
+            addEvent(old, TrackChanges.DROPPED);
+            changed = true;
+        }
+    }
+
+    /*
+     * Note an event for the listeners. The events of a track are gathered
+     * until the notify stage sends them.
+     */
+    private void addEvent(Track track, int event) {
+        if (track.getEvents() == 0) {
+            pending.add(track);
         }
+
+        track.setEvents(track.getEvents() | event);
     }
 
     /**
-     * As new data arrives the old track object is updated.
-     *
-     * @param acid a String representing the Aircraft ID
-     * @param trk an Object representing the Track data
+     * This is the ingest stage. The reports queued by the track sources are
+     * applied, and a new snapshot published.
      */
-    public void replaceTrack(String acid, Track trk) {
-        synchronized (tracks) {
-            if (acid != null) {
-                try {
-                    tracks.replace(acid, trk);
-                } catch (NullPointerException e) {
-                    System.err.println("ProcessTracks::replaceTrack Exception during replace " + e.toString());
-                }
+    class IngestStage extends TickStage {
+
+        private final List<List<TrackUpdate>> batches = new ArrayList<>();
+
+        IngestStage() {
+            super("ingest", TickScheduler.PHASE_INGEST, 1);
+        }
+
+        @Override
+        public void begin(long now) {
+            queue.drainTo(batches);
+
+            for (List<TrackUpdate> batch : batches) {
+                applyUpdates(batch);
+            }
+
+            batches.clear();
+            publish();
+        }
+    }
+
+    /*
+     * Put the track on the dim and drop wheels, if it isn't already waiting on
+     * them. It is only checked against its times when the deadline comes, so
+     * the updates in between cost nothing.
+     */
+    private void scheduleExpiry(Track track) {
+        if (track.getDimDeadline() == 0L && track.getUpdatedPosTime() != 0L
+                && track.isDim() == false) {
+            long deadline = track.getUpdatedPosTime() + dimTime;
+
+            track.setDimDeadline(deadline);
+            dimWheel.schedule(track, deadline);
+        }
+
+        if (track.getDropDeadline() == 0L && track.getUpdatedTime() != 0L) {
+            long deadline = track.getUpdatedTime() + dropTime;
+
+            track.setDropDeadline(deadline);
+            dropWheel.schedule(track, deadline);
+        }
+    }
+
+    /*
+     * If track hasn't been updated in xx seconds or more then signal the
+     * track block to go dim if it isn't already and to delete all conflict
+     * alerts pointing to this track. Also set vertical trend to level.
+     */
+    private void dimTrack(Track track) {
+        if (track.isDim() == false) {
+            track.setDim(true);
+            track.setVerticalDIM();
+            addEvent(track, TrackChanges.DIMMED);
+        }
+
+        removeConflicts(track);
+    }
+
+    /*
+     * Get rid of all the conflict links in other targets, and then all
+     * conflicts on this target
+     */
+    private void removeConflicts(Track track) {
+        for (int slot : track.getConflicts()) {
+            Track tt = columns.track[slot];
+
+            if (tt != null) {
+                tt.removeConflict(track.getSlot());
             }
         }
+
+        track.removeAllConflict();
+        track.setClosestApproach(null);
     }
 
     /**
-     * This is the Track with position values DIM and conflict timer
+     * This is the DIM and DROP stage. Only the tracks whose deadline has come
+     * are looked at. A track that was updated since it was scheduled goes
+     * back on the wheel with its new deadline.
      */
-    class TimeoutThread1 extends TimerTask {
+    class ExpireStage extends TickStage {
 
-        private long delta;
-        private long currentTime;
-        private long dimtime;
-        private long trackTime;
-        private List<Track> tracks;
-        private String acid = "";
+        private final List<Track> due = new ArrayList<>();
+
+        ExpireStage() {
+            super("expire", TickScheduler.PHASE_EXPIRE, (int) (RATE / TickScheduler.TICK));
+        }
 
         @Override
-        public void run() {
-            currentTime = System.currentTimeMillis();
-            dimtime = config.getIntegerSetting(Config.DISP_INSTRM_DIM) * 1000L;
+        public void begin(long now) {
+            long dim = config.getIntegerSetting(Config.DISP_INSTRM_DIM) * 1000L;
+            long drop = config.getIntegerSetting(Config.DISP_INSTRM_DROP) * 1000L;
+
+            /*
+             * The user changed the times, so all of the deadlines are wrong
+             */
+            if (dim != dimTime || drop != dropTime) {
+                dimTime = dim;
+                dropTime = drop;
+                dimWheel.clear();
+                dropWheel.clear();
+
+                for (Track track : getTrackList()) {
+                    track.setDimDeadline(0L);
+                    track.setDropDeadline(0L);
+                    scheduleExpiry(track);
+                }
+            }
 
-            tracks = getTrackList();
+            dimWheel.expire(now, due);
 
-            for (Track track : tracks) {
+            for (Track track : due) {
+                if (getTrack(track.getAcid()) != track) {
+                    continue;       // already dropped
+                }
 
-                /*
-                 * Delete all the stations to force it to start over
-                 */
-                track.clearSites();
+                track.setDimDeadline(0L);
 
-                try {
-                    acid = track.getAcid();
-
-                    // find the targets that haven't been position updated in x seconds
-                    trackTime = track.getUpdatedPosTime();
-
-                    if (trackTime != 0L) {
-                        delta = Math.abs(currentTime - trackTime);
-
-                        /*
-                         * If track hasn't been updated in xx seconds or more
-                         * then signal the track block to go dim if it isn't
-                         * already and to delete all conflict alerts pointing to
-                         * this track. Also set vertical trend to level.
-                         */
-                        if (delta >= dimtime) {
-                            if (track.getTrackOption(Track.TRACKBLOCK_DIM).equals(Boolean.FALSE)) {
-                                track.setTrackBooleanOption(Track.TRACKBLOCK_DIM, Boolean.TRUE);
-                                track.setVerticalDIM();
-                            }
-
-                            /*
-                             * Get rid of all the conflict links in other
-                             * targets
-                             */
-                            String[] table = track.getConflicts();
-
-                            for (String table1 : table) {
-                                Track tt = (Track) getTrack(table1);
-                                tt.removeConflict(acid);
-                            }
-
-                            /*
-                             * Now get rid of all conflicts on this target
-                             */
-                            track.removeAllConflict();
-                        }
-                    }
-                } catch (Exception e2) {
+                if (columns.updatedPosTime[track.getSlot()] + dimTime <= now) {
+                    dimTrack(track);
+                } else {
+                    scheduleExpiry(track);
+                }
+            }
+
+            due.clear();
+            dropWheel.expire(now, due);
+
+            for (Track track : due) {
+                if (getTrack(track.getAcid()) != track) {
+                    continue;
+                }
+
+                track.setDropDeadline(0L);
+
+                if (columns.updatedTime[track.getSlot()] + dropTime <= now) {
+                    removeTrack(track.getAcid());
+                } else {
+                    scheduleExpiry(track);
                 }
             }
+
+            due.clear();
+            publish();
         }
     }
 
     /**
-     * This is the DROP position timer
+     * This is the notify stage. It runs after the conflicts are found, and
+     * sends the events gathered this tick to the listeners in one batch.
      */
-    class TimeoutThread2 extends TimerTask {
+    class NotifyStage extends TickStage {
 
-        private long delta;
-        private long currentTime;
-        private long targetTime;
-        private long droptime;
-        private List<Track> tracks;
+        NotifyStage() {
+            super("notify", TickScheduler.PHASE_RENDER, 1);
+        }
 
         @Override
-        public void run() {
-            currentTime = System.currentTimeMillis();
-            droptime = config.getIntegerSetting(Config.DISP_INSTRM_DROP) * 1000L;
-
-            tracks = getTrackList();
-
-            if (!tracks.isEmpty()) {
-                for (Track track : tracks) {
-                    try {
-                        targetTime = track.getUpdatedTime();
-
-                        if (targetTime != 0L) {
-                            delta = Math.abs(currentTime - targetTime); // abs() in case of wierdness
-
-                            // find the tracks that haven't been updated in xx seconds
-                            if (delta >= droptime) {
-                                removeTrack(track.getAcid());
-                            }
-                        }
-                    } catch (Exception e2) {
+        public void begin(long now) {
+            if (pending.isEmpty()) {
+                return;
+            }
+
+            Track[] list = new Track[pending.size()];
+            int[] events = new int[list.length];
+            int[] fields = new int[list.length];
+            int n = 0;
+
+            /*
+             * The change bits move from the tracks into the batch, which
+             * all of the listeners share. They are only good for that batch:
+             * the next one has the changes made after it.
+             */
+            for (Track track : pending) {
+                int e = track.getEvents();
+                int f = track.takeChanges();
+
+                track.setEvents(0);
+
+                if ((e & TrackChanges.DROPPED) != 0) {
+                    if ((e & TrackChanges.ADDED) != 0) {
+                        continue;       // came and went, nobody saw it
                     }
+
+                    e = TrackChanges.DROPPED;
+                } else if ((e & TrackChanges.ADDED) != 0) {
+                    e = TrackChanges.ADDED;
+                }
+
+                list[n] = track;
+                events[n] = e;
+                fields[n] = f;
+                n++;
+            }
+
+            pending.clear();
+
+            if (n == 0 || listeners.isEmpty()) {
+                return;
+            }
+
+            TrackChanges changes = new TrackChanges(snapshot.getVersion(), list, events, fields, n);
+
+            for (TrackListener l : listeners) {
+                try {
+                    l.tracksChanged(changes);
+                } catch (Exception e) {
+                    System.err.println("ProcessTracks::NotifyStage Exception in listener " + e.toString());
                 }
             }
         }
@@ -0,0 +1,440 @@
+package scope;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * The whole modestable held in memory, keyed by the 24-bit ICAO address.
+ *
+ * The table is an open-addressing hash of int keys, with the registrations
+ * stored in fixed width byte slots beside them. It lives in a memory-mapped
+ * file, so a restart uses the file from the last run at once, and the table
+ * is read again from the database in the background.
+ *
+ * A mapped file can't be replaced or deleted on every system while it is
+ * mapped, and the mapping is only let go when the buffer is collected. So
+ * each load writes a new file, named for its load time, and maps that. The
+ * files of earlier loads are deleted at the next load, or left for the one
+ * after if they are still held.
+ *
+ * The refresh is a background stage of the scheduler, which hands the load
+ * to a thread of its own, so a slow read of the table never holds up a tick.
+ *
+ * File layout, big-endian:
+ *
+ * 0 magic, 4 version, 8 capacity, 12 count, 16 load time (long),
+ * HEADER keys (capacity ints, 0 is empty), then the registrations
+ * (capacity slots of REG_WIDTH bytes, zero padded)
+ */
+public final class RegistrationIndex {
+
+    private static final int MAGIC = 0x52454749;                // "REGI"
+    private static final int VERSION = 1;
+    private static final int HEADER = 24;                       // bytes
+    private static final int REG_WIDTH = 10;                    // bytes
+    private static final long RATE = 6L * 60L * 60L * 1000L;   // 6 hours
+    private static final String SELECT = "SELECT acid,acft_reg FROM modestable";
+    //
+    private final File file;
+    private final ConnectionPool pool;
+    private final ProcessTracks process;
+    //
+    private volatile Table table;
+    private volatile File current;
+    //
+    private final TickScheduler scheduler;
+    private final TickStage stage;
+    private final ExecutorService executor;
+    private final AtomicBoolean loading;
+
+    /*
+     * One loaded table, never changed once it is published
+     */
+    private static final class Table {
+
+        final ByteBuffer buf;
+        final int mask;
+        final int count;
+        final int regs;
+
+        Table(ByteBuffer b) {
+            buf = b;
+            mask = b.getInt(8) - 1;
+            count = b.getInt(12);
+            regs = HEADER + ((mask + 1) * 4);
+        }
+
+        String get(int key) {
+            int slot = mix(key) & mask;
+            int k;
+
+            while ((k = buf.getInt(HEADER + (slot * 4))) != 0) {
+                if (k == key) {
+                    int pos = regs + (slot * REG_WIDTH);
+                    int len = 0;
+
+                    while (len < REG_WIDTH && buf.get(pos + len) != 0) {
+                        len++;
+                    }
+
+                    byte[] b = new byte[len];
+
+                    for (int i = 0; i < len; i++) {
+                        b[i] = buf.get(pos + i);
+                    }
+
+                    return new String(b, StandardCharsets.US_ASCII);
+                }
+
+                slot = (slot + 1) & mask;
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Create the index, and map the newest file from the last run if there is
+     * one.
+     *
+     * @param f a File representing the index file, which names the load files
+     * @param cp the ConnectionPool used to refresh the index
+     * @param p the ProcessTracks whose tracks are given registrations
+     * @param ts the TickScheduler that runs the refresh
+     */
+    public RegistrationIndex(File f, ConnectionPool cp, ProcessTracks p, TickScheduler ts) {
+        file = f;
+        pool = cp;
+        process = p;
+        scheduler = ts;
+        table = null;
+        current = null;
+        loading = new AtomicBoolean(false);
+
+        File[] found = listFiles();
+
+        /*
+         * Newest first, falling back to an older file if one is bad
+         */
+        for (int i = found.length - 1; i >= 0 && table == null; i--) {
+            try {
+                table = map(found[i]);
+                current = found[i];
+                System.out.println("RegistrationIndex loaded " + table.count + " registrations from " + current);
+            } catch (IOException e) {
+                System.err.println("RegistrationIndex::RegistrationIndex Exception unable to map " + found[i] + " " + e.toString());
+            }
+        }
+
+        stage = new Refresh();
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "RegistrationIndex");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /*
+     * Load at once, as the scheduler only runs the stage on a multiple of
+     * its period
+     */
+    public void start() {
+        scheduler.addStage(stage);
+        refresh();
+    }
+
+    public void close() {
+        scheduler.removeStage(stage);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Method to return the registration of an aircraft
+     *
+     * @param acid a String representing the ICAO address in hex
+     * @return a String representing the registration, or null if not known
+     */
+    public String getRegistration(String acid) {
+        Table t = table;
+        int key = toKey(acid);
+
+        if (t == null || key == 0) {
+            return null;
+        }
+
+        return t.get(key);
+    }
+
+    public int getCount() {
+        Table t = table;
+
+        return (t == null) ? 0 : t.count;
+    }
+
+    /*
+     * Keys are the TrackStore address plus one, so that address 000000 is
+     * not empty. An acid that isn't an address has no registration.
+     */
+    private static int toKey(String acid) {
+        return TrackStore.toAddress(acid) + 1;
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+
+        return h ^ (h >>> 16);
+    }
+
+    /*
+     * The load files, oldest first. The names end in the load time, all of
+     * the same length, so they sort by name.
+     */
+    private File[] listFiles() {
+        File dir = file.getAbsoluteFile().getParentFile();
+        String prefix = file.getName() + ".";
+        File[] found = (dir == null) ? null : dir.listFiles((d, name) -> name.startsWith(prefix)
+                && name.length() > prefix.length()
+                && name.substring(prefix.length()).chars().allMatch(Character::isDigit));
+
+        if (found == null) {
+            return new File[0];
+        }
+
+        Arrays.sort(found);
+        return found;
+    }
+
+    /*
+     * Delete the load files other than the one in use, and any left part
+     * written. A file still mapped may not go, and is tried again next time.
+     */
+    private void deleteOld() {
+        File dir = file.getAbsoluteFile().getParentFile();
+        String prefix = file.getName() + ".";
+        File[] found = (dir == null) ? null : dir.listFiles((d, name) -> name.startsWith(prefix));
+
+        try {
+            Files.deleteIfExists(file.toPath());    // the one file of earlier versions
+        } catch (IOException e) {
+        }
+
+        if (found == null) {
+            return;
+        }
+
+        for (File f : found) {
+            if (!f.equals(current)) {
+                try {
+                    Files.deleteIfExists(f.toPath());
+                } catch (IOException e) {
+                    // still mapped, next time
+                }
+            }
+        }
+    }
+
+    private static Table map(File f) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r");
+                FileChannel fc = raf.getChannel()) {
+            MappedByteBuffer buf = fc.map(FileChannel.MapMode.READ_ONLY, 0L, fc.size());
+
+            if (fc.size() < HEADER || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+                throw new IOException("not a registration index");
+            }
+
+            int capacity = buf.getInt(8);
+
+            if (Integer.bitCount(capacity) != 1 || fc.size() != HEADER + ((long) capacity * (4 + REG_WIDTH))) {
+                throw new IOException("bad registration index size");
+            }
+
+            return new Table(buf);
+        }
+    }
+
+    /*
+     * Read the whole modestable, write it to a new file, and swap it in.
+     * Runs on the executor thread.
+     */
+    private void load() throws SQLException, IOException {
+        PooledConnection con = null;
+        ResultSet rs = null;
+        int[] keys = new int[1 << 16];
+        byte[] regs = new byte[keys.length * REG_WIDTH];
+        int count = 0;
+
+        try {
+            con = pool.getConnection();
+            PreparedStatement query = con.prepare(SELECT);
+            rs = query.executeQuery();
+
+            while (rs.next()) {
+                int key = toKey(rs.getString("acid"));
+                String reg = rs.getString("acft_reg");
+
+                if (key == 0 || reg == null || reg.trim().isEmpty()) {
+                    continue;
+                }
+
+                /*
+                 * Keep the table at most half full
+                 */
+                if ((count + 1) * 2 > keys.length) {
+                    int[] nkeys = new int[keys.length * 2];
+                    byte[] nregs = new byte[nkeys.length * REG_WIDTH];
+
+                    for (int i = 0; i < keys.length; i++) {
+                        if (keys[i] != 0) {
+                            int slot = find(nkeys, keys[i]);
+
+                            nkeys[slot] = keys[i];
+                            System.arraycopy(regs, i * REG_WIDTH, nregs, slot * REG_WIDTH, REG_WIDTH);
+                        }
+                    }
+
+                    keys = nkeys;
+                    regs = nregs;
+                }
+
+                int slot = find(keys, key);
+
+                if (keys[slot] == 0) {
+                    keys[slot] = key;
+                    count++;
+                }
+
+                byte[] b = reg.trim().getBytes(StandardCharsets.US_ASCII);
+                int pos = slot * REG_WIDTH;
+
+                for (int i = 0; i < REG_WIDTH; i++) {
+                    regs[pos + i] = (i < b.length) ? b[i] : 0;
+                }
+            }
+        } finally {
+            if (rs != null) {
+                try {
+                    rs.close();
+                } catch (SQLException e) {
+                }
+            }
+
+            pool.release(con);
+        }
+
+        /*
+         * Written through the channel, not mapped, so nothing holds the
+         * file once it is closed and it can be renamed
+         */
+        long loadTime = System.currentTimeMillis();
+        File next = new File(file.getPath() + String.format(".%015d", loadTime));
+        File temp = new File(next.getPath() + ".tmp");
+        ByteBuffer buf = ByteBuffer.allocate(HEADER + (keys.length * (4 + REG_WIDTH)));
+
+        buf.putInt(MAGIC);
+        buf.putInt(VERSION);
+        buf.putInt(keys.length);
+        buf.putInt(count);
+        buf.putLong(loadTime);
+        buf.asIntBuffer().put(keys);
+        buf.position(HEADER + (keys.length * 4));
+        buf.put(regs);
+        buf.flip();
+
+        try (RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+                FileChannel fc = raf.getChannel()) {
+            raf.setLength(0L);
+
+            while (buf.hasRemaining()) {
+                fc.write(buf);
+            }
+
+            fc.force(true);
+        }
+
+        Files.move(temp.toPath(), next.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+        table = map(next);
+        current = next;
+        deleteOld();
+    }
+
+    private static int find(int[] keys, int key) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    /*
+     * Hand a load to the executor, unless one is still going
+     */
+    private void refresh() {
+        if (loading.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::reload);
+            } catch (RejectedExecutionException e) {
+                loading.set(false);     // closed
+            }
+        }
+    }
+
+    /*
+     * Runs on the executor thread
+     */
+    private void reload() {
+        try {
+            load();
+            System.out.println("RegistrationIndex refreshed " + table.count + " registrations");
+        } catch (SQLException | IOException e) {
+            System.err.println("RegistrationIndex::Refresh Exception " + e.toString());
+            return;
+        } finally {
+            loading.set(false);
+        }
+
+
+        /*
+         * Tracks made before the index was ready
+         */
+        for (Track trk : process.getTrackList()) {
+            if (trk.getRegistration().isEmpty()) {
+                String reg = getRegistration(trk.getAcid());
+
+                if (reg != null) {
+                    trk.setRegistration(reg);
+                }
+            }
+        }
+    }
+
+    class Refresh extends TickStage {
+
+        Refresh() {
+            super("registrations", TickScheduler.PHASE_BACKGROUND, (int) (RATE / TickScheduler.TICK));
+        }
+
+        @Override
+        public void begin(long now) {
+            refresh();
+        }
+    }
+}
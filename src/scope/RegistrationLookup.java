@@ -0,0 +1,239 @@
+package scope;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * Fills in the aircraft registrations from the modestable.
+ *
+ * The tracks missing a registration are gathered each poll, and looked up
+ * with one IN (...) query on a thread of its own, so the track poll never
+ * waits on it. Registrations found are kept in a bounded LRU cache, and the
+ * aircraft not in the table are not asked for again until MISS_TTL passes.
+ *
+ * The IN list is padded to one of a few fixed sizes, so the connections only
+ * ever prepare a handful of statements.
+ */
+public final class RegistrationLookup {
+
+    private static final int[] BATCH_SIZES = {1, 8, 32, 128};
+    private static final int CACHE_SIZE = 8192;                 // registrations
+    private static final long MISS_TTL = 15L * 60L * 1000L;     // 15 minutes
+    //
+    private final ConnectionPool pool;
+    private final ProcessTracks process;
+    private final ExecutorService executor;
+    private final String[] queries;
+    //
+    private final Map<String, String> hits;     // guarded by this
+    private final Map<String, Long> misses;     // guarded by this
+    private final Set<String> pending;          // guarded by this
+    //
+    private long lookups;
+    private long cacheHits;
+
+    public RegistrationLookup(ConnectionPool cp, ProcessTracks p) {
+        pool = cp;
+        process = p;
+
+        hits = new LinkedHashMap<String, String>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+
+        misses = new HashMap<>();
+        pending = new HashSet<>();
+        lookups = cacheHits = 0L;
+
+        queries = new String[BATCH_SIZES.length];
+
+        for (int i = 0; i < BATCH_SIZES.length; i++) {
+            StringBuilder sb = new StringBuilder("SELECT acid,acft_reg FROM modestable WHERE acid IN (?");
+
+            for (int j = 1; j < BATCH_SIZES[i]; j++) {
+                sb.append(",?");
+            }
+
+            queries[i] = sb.append(')').toString();
+        }
+
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "RegistrationLookup");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Method to fill in the registrations already known, and queue a lookup
+     * of the rest. It returns at once.
+     *
+     * @param tracks a List of the tracks to check
+     */
+    public void enrich(List<Track> tracks) {
+        List<String> wanted = new ArrayList<>();
+        long utcnow = System.currentTimeMillis();
+
+        synchronized (this) {
+            for (Track trk : tracks) {
+                if (!trk.getRegistration().isEmpty()) {
+                    continue;
+                }
+
+                String acid = trk.getAcid();
+                String reg = hits.get(acid);
+
+                if (reg != null) {
+                    trk.setRegistration(reg);
+                    cacheHits++;
+                    continue;
+                }
+
+                Long expire = misses.get(acid);
+
+                if (expire != null) {
+                    if (utcnow < expire) {
+                        continue;
+                    }
+
+                    misses.remove(acid);
+                }
+
+                if (pending.add(acid)) {
+                    wanted.add(acid);
+                }
+            }
+        }
+
+        if (!wanted.isEmpty()) {
+            executor.execute(() -> lookup(wanted));
+        }
+    }
+
+    /*
+     * Runs on the executor thread
+     */
+    private void lookup(List<String> wanted) {
+        Map<String, String> found = new HashMap<>();
+        PooledConnection con = null;
+        ResultSet rs = null;
+        boolean ok = true;
+        int batches = 0;
+
+        try {
+            con = pool.getConnection();
+
+            for (int start = 0; start < wanted.size();) {
+                int count = Math.min(wanted.size() - start, BATCH_SIZES[BATCH_SIZES.length - 1]);
+                int size = 0;
+
+                while (BATCH_SIZES[size] < count) {
+                    size++;
+                }
+
+                PreparedStatement query = con.prepare(queries[size]);
+
+                /*
+                 * Pad the list by repeating the last acid
+                 */
+                for (int i = 0; i < BATCH_SIZES[size]; i++) {
+                    query.setString(i + 1, wanted.get(start + Math.min(i, count - 1)));
+                }
+
+                rs = query.executeQuery();
+
+                while (rs.next()) {
+                    String reg = rs.getString("acft_reg");
+
+                    if (reg != null && !reg.isEmpty()) {
+                        found.put(rs.getString("acid"), reg);
+                    }
+                }
+
+                rs.close();
+                rs = null;
+
+                start += count;
+                batches++;
+            }
+        } catch (SQLException e) {
+            // database probably locked, try these again next poll
+            ok = false;
+        } finally {
+            if (rs != null) {
+                try {
+                    rs.close();
+                } catch (SQLException e) {
+                }
+            }
+
+            pool.release(con);
+        }
+
+        long expire = System.currentTimeMillis() + MISS_TTL;
+
+        synchronized (this) {
+            lookups += batches;
+
+            for (String acid : wanted) {
+                pending.remove(acid);
+
+                String reg = found.get(acid);
+
+                if (reg != null) {
+                    hits.put(acid, reg);
+                } else if (ok) {
+                    misses.put(acid, expire);
+                }
+            }
+
+            /*
+             * Don't let the misses grow without bound
+             */
+            if (misses.size() > CACHE_SIZE) {
+                long utcnow = System.currentTimeMillis();
+
+                for (Iterator<Long> it = misses.values().iterator(); it.hasNext();) {
+                    if (it.next() <= utcnow) {
+                        it.remove();
+                    }
+                }
+            }
+        }
+
+        for (Map.Entry<String, String> entry : found.entrySet()) {
+            Track trk = process.getTrack(entry.getKey());
+
+            if (trk != null) {
+                trk.setRegistration(entry.getValue());
+            }
+        }
+    }
+
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Method to return the cache metrics for logging
+     *
+     * @return a String representing the cache metrics
+     */
+    public synchronized String getStatistics() {
+        return String.format("RegistrationLookup: %d cached, %d misses, %d cache hits, %d queries",
+                hits.size(), misses.size(), cacheHits, lookups);
+    }
+}
@@ -4,28 +4,28 @@ import gui.DiamondSprite;
 import gui.MapGeoData;
 import gui.MapObject;
 import gui.MapVector;
+import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.sql.Connection;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.sql.Statement;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
 import java.text.NumberFormat;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import math.FastNavigator;
 import math.Navigator;
-import math.OrthographicNavigator;
 import math.Projection;
 
 public final class Renderer extends ScopeRenderer {
 
+    private static final Navigator NAV = new FastNavigator();   // shared, it has no state
+    //
     private final ProcessTracks process;
     //
     private final ConcurrentHashMap<String, DiamondSprite> sprites;
-    private ConcurrentHashMap<String, Object> option;
     private List<Track> tracks;
     //
     private final NumberFormat nf3;
@@ -33,20 +33,40 @@ public final class Renderer extends ScopeRenderer {
     //
     private int windowX, windowY;
     private long echoLimit;
+    private volatile boolean blinking;      // the last frame had something blinking
     //
     private MapGeoData mapGeoData;
     private MapVector mapVector;
     private MapObject mapObject;
     private Graphics2D graph;
     //
-    private final Connection db;
+    private final double[] echoLat;
+    private final double[] echoLon;
+    private final int[] echoTrend;
+    private final int[] echoX;
+    private final int[] echoY;
+    //
+    private int[] mapX;                     // map vector points, projected in one batch
+    private int[] mapY;
+    //
+    private BufferedImage mapImage;         // the map vectors as last drawn
+    private MapGeoData mapImageData;        // and the view they were drawn for
+    private int mapImageCount;
+    private double mapImageLat, mapImageLon, mapImageScale;
 
-    public Renderer(ProcessTracks pr, Connection con, Projection p, Navigator n, double s, Config c) {
+    public Renderer(ProcessTracks pr, Projection p, Navigator n, double s, Config c) {
         super(p, n, s, c);
 
         process = pr;
-        db = con;
+        echoLat = new double[EchoHistory.MAX_ECHOES];
+        echoLon = new double[EchoHistory.MAX_ECHOES];
+        echoTrend = new int[EchoHistory.MAX_ECHOES];
+        echoX = new int[EchoHistory.MAX_ECHOES];
+        echoY = new int[EchoHistory.MAX_ECHOES];
+        mapX = new int[256];
+        mapY = new int[256];
         sprites = new ConcurrentHashMap<>();
+        blinking = false;
 
         nf3 = NumberFormat.getIntegerInstance();
         nf3.setMinimumIntegerDigits(3);
@@ -69,14 +89,21 @@ public final class Renderer extends ScopeRenderer {
         return sprites.values();
     }
 
+    /**
+     * Method to tell if the last frame painted had anything that blinks, so
+     * it needs painting again when the display step flips.
+     *
+     * @return a boolean representing whether anything was blinking
+     */
+    public boolean hasBlinking() {
+        return blinking;
+    }
+
     @Override
     public void renderer(Graphics graphics, int width, int height, boolean displayStep) {
-        Statement query = null;
-        ResultSet rs = null;
-        String queryString;
         LatLon p, m;
-        int x, y, vert;
-        int lowAltitude, highAltitude;
+        int x, y, n;
+        int lowAltitude, highAltitude, altitude;
         boolean dim = false;
         boolean paint_echo;
 
@@ -86,6 +113,7 @@ public final class Renderer extends ScopeRenderer {
 
         windowX = width;
         windowY = height;
+        blinking = false;
 
         graph = (Graphics2D) graphics.create();
         graph.setFont(dc.getFontSetting(Config.DISP_INSTRM_FONT));
@@ -97,13 +125,16 @@ public final class Renderer extends ScopeRenderer {
         // mapGeoData is null until map data is finally read from file
         if (mapGeoData != null) {
             //paintMapObjects(graph);
-            paintMapVectors(graph);
+            paintMapLayer(graph, width, height);
         }
 
         /*
-         * First, get a copy of all the targets into a Vector
+         * First, get the latest snapshot of the targets
          */
-        tracks = process.getTrackListWithPositions();
+        TrackSnapshot snapshot = process.getSnapshot();
+        int[] altitudes = snapshot.getAltitudes();
+
+        tracks = snapshot.getTracksWithPositions();
 
         /*
          * Second, plot the targets and echoes onto the projection
@@ -111,98 +142,83 @@ public final class Renderer extends ScopeRenderer {
         if (!tracks.isEmpty()) {
             long currentTime = System.currentTimeMillis();
 
-            for (Track track : tracks) {
-                option = track.getTrackOptions();
+            for (int t = 0; t < tracks.size(); t++) {
+                /*
+                 * The tracks are shared by all of the windows, so only paint
+                 * those in the altitude window of this one. Allow for
+                 * pressure altitude on the low side. A track with no
+                 * altitude yet is in no window. The altitudes are read from
+                 * the snapshot column, so the tracks skipped are never
+                 * touched.
+                 */
+                altitude = altitudes[t];
+
+                if ((altitude == -9999) || (altitude < (lowAltitude - 1000)) || (altitude > highAltitude)) {
+                    continue;
+                }
+
+                Track track = tracks.get(t);
+                TrackState state = track.getState();     // one read, so the values agree
 
-                try {
-                    dim = option.get(Track.TRACKBLOCK_DIM).equals(Boolean.TRUE);
-                } catch (NullPointerException e) {
-                    System.err.println("Renderer::render Exception during option get " + e.toString());
+                dim = track.isDim();
+
+                p = state.getPosition();        // lat/lon
+
+                /*
+                 * A track on the far side of the globe would plot back over
+                 * this side, as the map points behind it are left out
+                 */
+                if (projection.isBehind(p.lat, p.lon)) {
+                    continue;
                 }
 
-                p = track.getPosition();        // lat/lon
                 m = projection.convertToMeters(p);
                 x = (int) (m.lon * scale);
                 y = (int) (m.lat * (-scale));
 
                 if (track.getIsOnGround() == true) {      // On Ground
                     // This just paints the Hex ID and GroundSpeed
-                    paintGndBlock(x, y, track, graph);
+                    paintGndBlock(x, y, track, state, graph);
                     paint_echo = dc.getBooleanSetting(Config.DISP_INSTRM_GND_ECHO);
                 } else {                // not on ground
                     if (p.lon != 0.0 && p.lat != 0.0) {
                         if (!Double.isNaN(p.lon) || !Double.isNaN(p.lat)) {
-                            paintSpeedVector(p, track, graph, dim);
+                            paintSpeedVector(p, state, graph, dim);
                         }
                     }
 
-                    paintAircraft(x, y, track, graph, displayStep, dim);
+                    paintAircraft(x, y, track, state, graph, displayStep, dim);
+
+                    if (!dim) {
+                        paintClosestApproach(x, y, track, graph, currentTime);
+                    }
+
                     paint_echo = true;  // always paint echo for airborne
                 }
 
                 /*
-                 * Get this tracks echoes from the database
+                 * Get this tracks echoes from its history, and paint them
                  */
                 if (paint_echo) {
-                    try {
-                        queryString = String.format("SELECT latitude,longitude,verticalTrend"
-                                + " FROM targetecho WHERE acid='%s' && altitude >= %d &&"
-                                + " altitude <= %d && utcdetect > %d ORDER BY "
-                                + "utcdetect DESC",
-                                track.getAcid(),
-                                lowAltitude,
-                                highAltitude,
-                                (currentTime - echoLimit));
-
-                        try {
-                            query = db.createStatement();
-                            rs = query.executeQuery(queryString);
-                        } catch (SQLException e7) {
-                            query.close();
-                            continue;
-                        }
+                    n = track.getEchoHistory().getEchoes(currentTime - echoLimit,
+                            lowAltitude, highAltitude, echoLat, echoLon, echoTrend);
 
-                        /*
-                         * and paint them
-                         */
-                        while (rs.next()) {
-                            p = new LatLon(rs.getFloat("latitude"), rs.getFloat("longitude"));
-                            vert = rs.getInt("verticalTrend");
-
-                            if (p.lon != 0.0 && p.lat != 0.0) {
-                                try {
-                                    m = projection.convertToMeters(p);
-                                    x = (int) (m.lon * scale);
-                                    y = (int) (m.lat * (-scale));
-
-                                    if (isInRange(x, y)) {
-                                        if (vert < 0) {
-                                            graph.setColor(dc.getColorSetting(Config.COLORS_TRACK_DESCEND_HIST));
-                                        } else if (vert > 0) {
-                                            graph.setColor(dc.getColorSetting(Config.COLORS_TRACK_CLIMB_HIST));
-                                        } else {
-                                            graph.setColor(dc.getColorSetting(Config.COLORS_TRACK_HIST));
-                                        }
-
-                                        graph.fillOval(x, y, dc.getIntegerSetting(Config.DISP_INSTRM_ESIZE), dc.getIntegerSetting(Config.DISP_INSTRM_ESIZE) + 1);
-                                    }
-                                } catch (Exception e8) {
-                                }
-                            }
-                        }
-                    } catch (SQLException e9) {
-                    } finally {
-                        if (rs != null) {
-                            try {
-                                rs.close();
-                            } catch (SQLException e10) {
-                            }
-                        }
-                        if (query != null) {
-                            try {
-                                query.close();
-                            } catch (SQLException e11) {
+                    projection.project(echoLat, echoLon, n, scale, echoX, echoY);
+
+                    for (int i = 0; i < n; i++) {
+                        x = echoX[i];
+                        y = echoY[i];
+
+                        if (isInRange(x, y)) {
+                            if (echoTrend[i] < 0) {
+                                graph.setColor(dc.getColorSetting(Config.COLORS_TRACK_DESCEND_HIST));
+                            } else if (echoTrend[i] > 0) {
+                                graph.setColor(dc.getColorSetting(Config.COLORS_TRACK_CLIMB_HIST));
+                            } else {
+                                graph.setColor(dc.getColorSetting(Config.COLORS_TRACK_HIST));
                             }
+
+                            graph.fillOval(x, y, dc.getIntegerSetting(Config.DISP_INSTRM_ESIZE), dc.getIntegerSetting(Config.DISP_INSTRM_ESIZE) + 1);
                         }
                     }
                 }
@@ -217,7 +233,7 @@ public final class Renderer extends ScopeRenderer {
     /*
      * Plot the current position on the scope
      */
-    private void paintAircraft(int x, int y, Track track, Graphics2D graphics, boolean dStep, boolean dim) {
+    private void paintAircraft(int x, int y, Track track, TrackState state, Graphics2D graphics, boolean dStep, boolean dim) {
         DiamondSprite d;
         String acid = track.getAcid();
         Color clr1;
@@ -288,13 +304,13 @@ public final class Renderer extends ScopeRenderer {
             }
         }
 
-        paintDataBlock(x, y, track, graphics, dStep, dim);
+        paintDataBlock(x, y, track, state, graphics, dStep, dim);
     }
 
     /*
      * Ground targets don't get a full data block
      */
-    private void paintGndBlock(int x, int y, Track track, Graphics graphics) {
+    private void paintGndBlock(int x, int y, Track track, TrackState state, Graphics graphics) {
         String line1, line2;
 
         if (isInRange(x, y)) {
@@ -302,7 +318,7 @@ public final class Renderer extends ScopeRenderer {
             graphics.setFont(dc.getFontSetting(Config.DISP_INSTRM_TRACK_FONT));
 
             line1 = track.getAcid();
-            line2 = nf3.format(track.getGroundSpeed());
+            line2 = nf3.format(state.getGroundSpeed());
 
             /*
              * Squash text together a bit by 20%
@@ -315,7 +331,7 @@ public final class Renderer extends ScopeRenderer {
         }
     }
 
-    private void paintDataBlock(int x, int y, Track track, Graphics graphics, boolean displayStep, boolean dim) {
+    private void paintDataBlock(int x, int y, Track track, TrackState state, Graphics graphics, boolean displayStep, boolean dim) {
         boolean mouseover = track.isMouseOver();
         String tmp;
 
@@ -330,18 +346,14 @@ public final class Renderer extends ScopeRenderer {
         }
 
         if (isInRange(x, y)) {
-            int actualAlt = track.getAltitude();
-            double groundSpeed = track.getGroundSpeed();
+            int actualAlt = state.getAltitude();
+            double groundSpeed = state.getSpeed();
             String callsign = track.getCallsign();
             String squawk = track.getSquawk();
-            int vr = track.getVerticalRate();
+            int vr = state.getVerticalRate();
             int vt = track.getVerticalTrend();
             Color clr, clr1;
 
-            if (track.getUseComputed() == true) {
-                groundSpeed = track.getComputedGroundSpeed();
-            }
-
             if (vt > 0) {
                 clr1 = dc.getColorSetting(Config.COLORS_TRACK_CLIMB);
             } else if (vt < 0) {
@@ -358,7 +370,7 @@ public final class Renderer extends ScopeRenderer {
             graphics.setColor(clr1);
             graphics.setFont(dc.getFontSetting(Config.DISP_INSTRM_TRACK_FONT));
 
-            int dataPos = (Integer) track.getTrackOption(Track.TRACKBLOCK_POSITION);
+            int dataPos = track.getBlockPosition();
 
             if (dataPos == 0) {
                 dataPos = dc.getIntegerSetting(Config.DISP_INSTRM_BLOCK);
@@ -391,7 +403,7 @@ public final class Renderer extends ScopeRenderer {
             } else if (actualAlt >= ta) {
                 secondLine += "F" + nf3.format(actualAlt / 100);
             } else {
-                int amsl = track.getAMSLAltitude();
+                int amsl = state.getAMSLAltitude();
 
                 if (amsl != 0) {
                     secondLine += "A" + nf3.format(amsl / 100);
@@ -402,7 +414,7 @@ public final class Renderer extends ScopeRenderer {
 
             secondLine += " ";
 
-            if (track.getUseComputed() == true) {
+            if (state.getUseComputed() == true) {
                 if (groundSpeed == 0.0) {
                     secondLine += " ";
                 } else {
@@ -414,6 +426,8 @@ public final class Renderer extends ScopeRenderer {
 
             if (track.hasConflicts()) {
                 if (!dim) {
+                    blinking = true;
+
                     // this should blink on the datablock
                     if (displayStep == false) {
                         red = false;
@@ -435,6 +449,8 @@ public final class Renderer extends ScopeRenderer {
                      */
                     switch (squawk) {
                         case "7500":
+                            blinking = true;
+
                             // this should blink on the datablock
                             if (displayStep == false) {
                                 red = false;
@@ -446,6 +462,8 @@ public final class Renderer extends ScopeRenderer {
                             }
                             break;
                         case "7600":
+                            blinking = true;
+
                             // this should blink on the datablock
                             if (displayStep == false) {
                                 red = false;
@@ -457,6 +475,8 @@ public final class Renderer extends ScopeRenderer {
                             }
                             break;
                         case "7700":
+                            blinking = true;
+
                             // this should blink on the datablock
                             if (displayStep == false) {
                                 red = false;
@@ -491,13 +511,7 @@ public final class Renderer extends ScopeRenderer {
                  * 316 - 45 = 3 46 - 135 = 5 136 - 225 = 7 226 - 315 = 1
                  */
                 case 0:
-                    int tk;
-
-                    if (track.getUseComputed() == true) {
-                        tk = (int) track.getComputedGroundTrack();
-                    } else {
-                        tk = (int) track.getGroundTrack();
-                    }
+                    int tk = (int) state.getCourse();
 
                     if (tk > 315 && tk < 46) {
                         dataX = 6;
@@ -593,8 +607,7 @@ public final class Renderer extends ScopeRenderer {
         }
     }
 
-    private void paintSpeedVector(LatLon start, Track track, Graphics graphics, boolean dim) {
-        OrthographicNavigator nav = new OrthographicNavigator();
+    private void paintSpeedVector(LatLon start, TrackState state, Graphics graphics, boolean dim) {
         LatLon meters;
         double speed, heading;
         int vecMin = dc.getIntegerSetting(Config.DISP_INSTRM_VECTOR);
@@ -602,16 +615,11 @@ public final class Renderer extends ScopeRenderer {
         Color clr1;
 
         if (vecMin != 0) {
-            if (track.getUseComputed() == true) {
-                speed = track.getComputedGroundSpeed();
-                heading = track.getComputedGroundTrack();
+            speed = state.getSpeed();
+            heading = state.getCourse();
 
-                if (speed > 600.0) {		// tame it
-                    speed = 300.0;
-                }
-            } else {
-                speed = track.getGroundSpeed();
-                heading = track.getGroundTrack();
+            if (state.getUseComputed() == true && speed > 600.0) {		// tame it
+                speed = 300.0;
             }
 
             if (speed < 50.0) {
@@ -633,7 +641,12 @@ public final class Renderer extends ScopeRenderer {
             int y1 = (int) (meters.lat * -scale);
 
             // end point of the vector line
-            LatLon end = nav.getFutureLocation(start, heading, speed, (vecMin * 60L));
+            LatLon end = NAV.getFutureLocation(start, heading, speed, (vecMin * 60L));
+
+            if (projection.isBehind(end.lat, end.lon)) {
+                return;
+            }
+
             meters = projection.convertToMeters(end);
 
             if (meters.lat == 0.0 && meters.lon == 0.0) {
@@ -659,6 +672,50 @@ public final class Renderer extends ScopeRenderer {
         }
     }
 
+    /*
+     * A predicted conflict is drawn as a line out to an X where the track
+     * will be at its closest approach, with the seconds to go. The conflict
+     * pass may not run again for a while, when nothing moves, so one whose
+     * time has passed is left off.
+     */
+    private void paintClosestApproach(int x, int y, Track track, Graphics graphics, long now) {
+        ClosestApproach ca = track.getClosestApproach();
+
+        if (ca == null || dc.getBooleanSetting(Config.DISP_INSTRM_CA) == false) {
+            return;
+        }
+
+        int seconds = ca.getSeconds(now);
+
+        if (seconds < 0) {
+            return;
+        }
+
+        LatLon p = ca.getPosition();
+
+        if ((p.lat == 0.0 && p.lon == 0.0) || projection.isBehind(p.lat, p.lon)) {
+            return;
+        }
+
+        LatLon meters = projection.convertToMeters(p);
+
+        if (Double.isNaN(meters.lat) || Double.isNaN(meters.lon)) {
+            return;
+        }
+
+        int x2 = (int) (meters.lon * scale);
+        int y2 = (int) (meters.lat * -scale);
+
+        graphics.setColor(Color.ORANGE);
+        graphics.drawLine(x, y, x2, y2);
+        graphics.drawLine(x2 - 4, y2 - 4, x2 + 4, y2 + 4);
+        graphics.drawLine(x2 - 4, y2 + 4, x2 + 4, y2 - 4);
+
+        if (isInRange(x2, y2)) {
+            graphics.drawString(Integer.toString(seconds) + "s", x2 + 6, y2);
+        }
+    }
+
     public void setMapData(MapGeoData m) {
         mapGeoData = m;
     }
@@ -688,30 +745,79 @@ public final class Renderer extends ScopeRenderer {
         }
     }
 
+    /*
+     * The map only changes when the scope is moved, zoomed or resized, or
+     * while the map file is still loading, so the vectors are drawn into an
+     * image once for the view, and the image is copied to the screen on
+     * each repaint in between.
+     */
+    private void paintMapLayer(Graphics2D graph, int width, int height) {
+        if (dc.getBooleanSetting(Config.MAP_VECTORS) == false || width <= 0 || height <= 0) {
+            return;
+        }
+
+        LatLon c = projection.getCenter();
+        int count = mapGeoData.getMapVectorCount();
+
+        if (mapImage == null || mapImage.getWidth() != width || mapImage.getHeight() != height
+                || mapImageData != mapGeoData || mapImageCount != count
+                || mapImageLat != c.lat || mapImageLon != c.lon || mapImageScale != scale) {
+            if (mapImage == null || mapImage.getWidth() != width || mapImage.getHeight() != height) {
+                mapImage = graph.getDeviceConfiguration().createCompatibleImage(width, height, Transparency.TRANSLUCENT);
+            }
+
+            Graphics2D g = mapImage.createGraphics();
+
+            g.setComposite(AlphaComposite.Clear);
+            g.fillRect(0, 0, width, height);
+            g.setComposite(AlphaComposite.SrcOver);
+            g.translate(width / 2, height / 2);
+            paintMapVectors(g);
+            g.dispose();
+
+            mapImageData = mapGeoData;
+            mapImageCount = count;
+            mapImageLat = c.lat;
+            mapImageLon = c.lon;
+            mapImageScale = scale;
+        }
+
+        graph.drawImage(mapImage, -(width / 2), -(height / 2), null);
+    }
+
     /*
      * Converted from old style Vector to new style Dequue
      * (I guess it was worth it...)
      */
     private void paintMapVectors(Graphics2D graph) {
-        Object[] lineVector;
-
         if (dc.getBooleanSetting(Config.MAP_VECTORS) == true) {
             if (mapGeoData.getMapVectorCount() > 0) {
                 List<MapVector> linevectors = mapGeoData.getAllMapVectors();
 
                 for (Iterator j = linevectors.iterator(); j.hasNext();) {
                     mapVector = (MapVector) j.next();
-                    lineVector = mapVector.getAllCoords();
                     graph.setColor(mapVector.getVectorColor());
 
-                    for (int i = 0; i < (lineVector.length - 1); i++) {
-                        LatLon start = projection.convertToMeters((LatLon) lineVector[i]);
-                        int x1 = (int) (start.lon * scale);
-                        int y1 = (int) (start.lat * -scale);
+                    /*
+                     * Each point is projected once, not once for each of
+                     * the two lines it ends. A point behind the globe is
+                     * out of range, so its lines aren't drawn.
+                     */
+                    int n = mapVector.getPointCount();
+                    double[] vectors = mapVector.getUnitVectors();
+
+                    if (mapX.length < n) {
+                        mapX = new int[n];
+                        mapY = new int[n];
+                    }
+
+                    projection.projectVectors(vectors, n, scale, mapX, mapY);
 
-                        LatLon end = projection.convertToMeters((LatLon) lineVector[i + 1]);
-                        int x2 = (int) (end.lon * scale);
-                        int y2 = (int) (end.lat * -scale);
+                    for (int i = 0; i < (n - 1); i++) {
+                        int x1 = mapX[i];
+                        int y1 = mapY[i];
+                        int x2 = mapX[i + 1];
+                        int y2 = mapY[i + 1];
 
                         if (isInRange(x1, y1) && isInRange(x2, y2)) {
                             graph.drawLine(x1, y1, x2, y2);
@@ -0,0 +1,131 @@
+package scope;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * The recorded file TrackSource
+ *
+ * Replays a file of SBS-1 messages, such as one recorded from port 30003 with
+ * "nc host 30003 > replay.sbs". The messages are paced by the time they were
+ * generated, divided by the replay speed. A speed of zero replays the file as
+ * fast as it can be read, which is handy for benchmarks.
+ *
+ * The tracks are stamped with the replay time, so they dim and drop as if
+ * they were live.
+ */
+public final class ReplayTrackSource implements TrackSource, Runnable {
+
+    private static final int BATCH = 500;                   // messages
+    //
+    private final Thread reader;
+    private volatile boolean EOF;
+    //
+    private final Config config;
+    private final ProcessTracks process;
+    private final SBSDecoder decoder;
+
+    public ReplayTrackSource(ProcessTracks p, Config cf) {
+        process = p;
+        config = cf;
+        EOF = false;
+        decoder = new SBSDecoder("REPLAY");
+
+        reader = new Thread(this);
+        reader.setName("ReplayTrackSource");
+    }
+
+    @Override
+    public void start() {
+        reader.start();
+    }
+
+    /*
+     * The interrupt ends a nap between messages, which lasts as long as the
+     * gap in the recording, or a wait for room in the update queue
+     */
+    @Override
+    public void close() {
+        EOF = true;
+        reader.interrupt();
+    }
+
+    /*
+     * Echoes are made from the track positions
+     */
+    @Override
+    public boolean hasEchoHistory() {
+        return false;
+    }
+
+    @Override
+    public void run() {
+        List<TrackUpdate> updates = new ArrayList<>();
+        double speed = config.getSourceSpeed();
+        long firstTime = -1L;
+        long startTime = System.currentTimeMillis();
+        long lines = 0L;
+        int count = 0;
+        String line;
+
+        try (BufferedReader in = new BufferedReader(new FileReader(config.getSourceFile()))) {
+            while ((EOF == false) && (Thread.currentThread().isInterrupted() == false)
+                    && ((line = in.readLine()) != null)) {
+                if (speed > 0.0) {
+                    long time = SBSDecoder.getTime(line);
+
+                    if (time != -1L) {
+                        if (firstTime == -1L) {
+                            firstTime = time;
+                        }
+
+                        long delay = startTime + (long) ((time - firstTime) / speed) - System.currentTimeMillis();
+
+                        /*
+                         * Send what we have before taking a nap
+                         */
+                        if (delay > 0L) {
+                            if (count > 0) {
+                                decoder.drain(updates);
+                                process.queueUpdates(updates);
+                                updates.clear();
+                                count = 0;
+                            }
+
+                            try {
+                                Thread.sleep(delay);
+                            } catch (InterruptedException e) {
+                                break;          // closed
+                            }
+                        }
+                    }
+                }
+
+                if (decoder.decode(line, System.currentTimeMillis())) {
+                    count++;
+                    lines++;
+                }
+
+                if (count >= BATCH) {
+                    decoder.drain(updates);
+                    process.queueUpdates(updates);
+                    updates.clear();
+                    count = 0;
+                }
+            }
+
+            if ((count > 0) && (EOF == false)) {
+                decoder.drain(updates);
+                process.queueUpdates(updates);
+            }
+
+            System.out.println("ReplayTrackSource finished " + lines + " messages in "
+                    + (System.currentTimeMillis() - startTime) + " ms");
+        } catch (IOException e) {
+            System.err.println("ReplayTrackSource::run Unable to read " + config.getSourceFile() + " " + e.getMessage());
+        }
+    }
+}
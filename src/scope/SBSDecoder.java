@@ -0,0 +1,204 @@
+package scope;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Decoder for the SBS-1 (BaseStation) text format, as sent on port 30003 by
+ * most ADS-B decoders:
+ *
+ * MSG,3,1,1,A1B2C3,1,2020/01/19,15:32:12.337,2020/01/19,15:32:12.337,,12000,,,35.41744,-97.40127,,,0,0,0,0
+ *
+ * Fields are:
+ *
+ * 0 MSG, 1 Type, 2 Session, 3 Aircraft, 4 Hex ID, 5 Flight, 6 Date Generated,
+ * 7 Time Generated, 8 Date Logged, 9 Time Logged, 10 Callsign, 11 Altitude,
+ * 12 Ground Speed, 13 Track, 14 Latitude, 15 Longitude, 16 Vertical Rate,
+ * 17 Squawk, 18 Alert, 19 Emergency, 20 SPI, 21 On Ground
+ *
+ * Each message only carries some of the fields, depending on its type, so the
+ * decoder keeps the latest report of each aircraft and merges every message
+ * into it.
+ */
+public final class SBSDecoder {
+
+    private static final int VERTICAL_DEADBAND = 192;     // feet per minute
+    private static final int FIELDS = 22;
+    //
+    private final Map<String, TrackUpdate> reports;
+    private final Set<String> changed;
+    private final String site;
+
+    /**
+     * Create a decoder
+     *
+     * @param s a String representing the site ID given to the reports
+     */
+    public SBSDecoder(String s) {
+        reports = new HashMap<>();
+        changed = new LinkedHashSet<>();
+        site = s;
+    }
+
+    /**
+     * Method to decode one line and merge it into the aircraft report
+     *
+     * @param line a String representing the SBS-1 message
+     * @param time a long representing the receive time in milliseconds
+     * @return a boolean representing whether a report was updated
+     */
+    public boolean decode(String line, long time) {
+        String[] field = line.split(",", -1);
+        TrackUpdate u;
+        String acid;
+
+        if (field.length < FIELDS || !field[0].equals("MSG")) {
+            return false;
+        }
+
+        acid = field[4].trim().toUpperCase();
+
+        if (acid.isEmpty()) {
+            return false;
+        }
+
+        u = reports.get(acid);
+
+        if (u == null) {
+            u = new TrackUpdate(acid);
+            u.site = site;
+            u.resolved = true;      // only one receiver
+            reports.put(acid, u);
+        }
+
+        u.utcupdate = time;
+
+        try {
+            if (!field[10].trim().isEmpty()) {
+                u.callsign = field[10].trim();
+            }
+
+            if (!field[11].isEmpty()) {
+                u.altitude = Integer.parseInt(field[11].trim());
+            }
+
+            if (!field[12].isEmpty()) {
+                u.groundSpeed = Double.parseDouble(field[12].trim());
+            }
+
+            if (!field[13].isEmpty()) {
+                u.groundTrack = Double.parseDouble(field[13].trim());
+            }
+
+            if (!field[14].isEmpty() && !field[15].isEmpty()) {
+                u.latitude = Double.parseDouble(field[14].trim());
+                u.longitude = Double.parseDouble(field[15].trim());
+            }
+
+            if (!field[16].isEmpty()) {
+                u.verticalRate = Integer.parseInt(field[16].trim());
+
+                if (u.verticalRate > VERTICAL_DEADBAND) {
+                    u.verticalTrend = 1;
+                } else if (u.verticalRate < -VERTICAL_DEADBAND) {
+                    u.verticalTrend = -1;
+                } else {
+                    u.verticalTrend = 0;
+                }
+            }
+
+            if (!field[17].isEmpty()) {
+                u.squawk = Integer.parseInt(field[17].trim());
+            }
+
+            if (!field[18].isEmpty()) {
+                u.alert = isSet(field[18]);
+            }
+
+            if (!field[19].isEmpty()) {
+                u.emergency = isSet(field[19]);
+            }
+
+            if (!field[20].isEmpty()) {
+                u.spi = isSet(field[20]);
+            }
+
+            if (!field[21].isEmpty()) {
+                u.onGround = isSet(field[21]);
+            }
+        } catch (NumberFormatException e) {
+            // bad field, keep what we have
+        }
+
+        changed.add(acid);
+        return true;
+    }
+
+    /*
+     * Flags are -1 (or 1 with some decoders) for true, and 0 for false
+     */
+    private boolean isSet(String val) {
+        String v = val.trim();
+
+        return v.equals("-1") || v.equals("1");
+    }
+
+    /**
+     * Method to copy the reports updated since the last call into the list
+     *
+     * @param out a List to receive the updated reports
+     * @return an integer representing the number of reports copied
+     */
+    public int drain(List<TrackUpdate> out) {
+        int n = 0;
+
+        for (String acid : changed) {
+            out.add(new TrackUpdate(reports.get(acid)));
+            n++;
+        }
+
+        changed.clear();
+        return n;
+    }
+
+    /**
+     * Method to forget the aircraft not heard from since the given time
+     *
+     * @param time a long representing the time in milliseconds
+     */
+    public void prune(long time) {
+        for (Iterator<TrackUpdate> it = reports.values().iterator(); it.hasNext();) {
+            if (it.next().utcupdate < time) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Method to return the time the message was generated
+     *
+     * @param line a String representing the SBS-1 message
+     * @return a long representing the time in milliseconds, or -1 if not known
+     */
+    public static long getTime(String line) {
+        String[] field = line.split(",", -1);
+
+        if (field.length < FIELDS || !field[0].equals("MSG")) {
+            return -1L;
+        }
+
+        try {
+            LocalDateTime t = LocalDateTime.parse(field[6].trim().replace('/', '-') + "T" + field[7].trim());
+
+            return t.toInstant(ZoneOffset.UTC).toEpochMilli();
+        } catch (Exception e) {
+            return -1L;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package scope;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * The SBS-1 (BaseStation) socket TrackSource
+ *
+ * Reads the text messages a local decoder sends on port 30003, and hands
+ * them to ProcessTracks as they arrive. Messages are batched only while more
+ * are already waiting in the socket, so there is no polling delay.
+ */
+public final class SBSTrackSource implements TrackSource, Runnable {
+
+    private static final long RECONNECT = 10L * 1000L;      // 10 seconds
+    private static final long PRUNE = 60L * 1000L;          // 1 minute
+    private static final int BATCH = 500;                   // messages
+    //
+    private final Thread reader;
+    private volatile boolean EOF;
+    //
+    private final Config config;
+    private final ProcessTracks process;
+    private final SBSDecoder decoder;
+    private volatile Socket socket;
+
+    public SBSTrackSource(ProcessTracks p, Config cf) {
+        process = p;
+        config = cf;
+        EOF = false;
+        socket = null;
+        decoder = new SBSDecoder(cf.getSourceHost());
+
+        reader = new Thread(this);
+        reader.setName("SBSTrackSource");
+    }
+
+    @Override
+    public void start() {
+        reader.start();
+    }
+
+    @Override
+    public void close() {
+        EOF = true;
+
+        /*
+         * Closing the socket ends a blocked read, and the interrupt ends
+         * a wait to reconnect
+         */
+        try {
+            Socket s = socket;
+
+            if (s != null) {
+                s.close();
+            }
+        } catch (IOException e) {
+        }
+
+        reader.interrupt();
+    }
+
+    /*
+     * Echoes are made from the track positions
+     */
+    @Override
+    public boolean hasEchoHistory() {
+        return false;
+    }
+
+    @Override
+    public void run() {
+        List<TrackUpdate> updates = new ArrayList<>();
+        BufferedReader in;
+        String line;
+        long pruneTime = 0L;
+        int count;
+
+        while (EOF == false) {
+            try {
+                socket = new Socket(config.getSourceHost(), config.getSourcePort());
+
+                if (EOF == true) {
+                    socket.close();     // closed while connecting
+                    break;
+                }
+
+                in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                count = 0;
+
+                while ((EOF == false) && ((line = in.readLine()) != null)) {
+                    long utcnow = System.currentTimeMillis();
+
+                    if (decoder.decode(line, utcnow)) {
+                        count++;
+                    }
+
+                    /*
+                     * Send the batch when nothing more is waiting
+                     */
+                    if ((count > 0) && ((count >= BATCH) || (in.ready() == false))) {
+                        decoder.drain(updates);
+                        process.queueUpdates(updates);
+                        updates.clear();
+                        count = 0;
+                    }
+
+                    if (utcnow >= pruneTime) {
+                        decoder.prune(utcnow - (config.getIntegerSetting(Config.DISP_INSTRM_DROP) * 1000L));
+                        pruneTime = utcnow + PRUNE;
+                    }
+                }
+
+                socket.close();
+            } catch (IOException e) {
+                if (EOF == false) {
+                    System.err.println("SBSTrackSource::run Unable to read " + config.getSourceHost()
+                            + ":" + config.getSourcePort() + " " + e.getMessage());
+                }
+            }
+
+            if (EOF == false) {
+                try {
+                    Thread.sleep(RECONNECT);
+                } catch (InterruptedException e) {
+                }
+            }
+        }
+    }
+}
@@ -4,7 +4,6 @@ import gui.MapGeoData;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.io.File;
-import java.sql.Connection;
 import javax.swing.JFrame;
 import javax.swing.JLayeredPane;
 
@@ -20,14 +19,14 @@ public final class ScopeFrame extends JFrame implements KeyListener {
     private ScopePanel scopePanel;
     private DisplayConfigPanel displayConfigPanel;
     private final ProcessTracks procTrack;
+    private final TickScheduler scheduler;
     private final Config props;
     private final JLayeredPane jLayeredPane1;
     private final JFrame parent;
-    private final Connection db;
 
-    public ScopeFrame(Config c, TrackDatabase tb, ProcessTracks pt) {
+    public ScopeFrame(Config c, ProcessTracks pt, TickScheduler ts) {
         procTrack = pt;
-        db = tb.getDatabaseConnection();
+        scheduler = ts;
         initComponents();
 
         parent = this;
@@ -46,7 +45,7 @@ public final class ScopeFrame extends JFrame implements KeyListener {
     }
 
     private void initScopePanel(LatLon center) {
-        scopePanel = new ScopePanel(procTrack, db, center, props);
+        scopePanel = new ScopePanel(procTrack, center, props, scheduler);
         jLayeredPane1.add(scopePanel, new Integer(LAYER_SCOPE_PANEL));
     }
 
@@ -290,7 +289,7 @@ public final class ScopeFrame extends JFrame implements KeyListener {
     }//GEN-LAST:event_jMenuItem4ActionPerformed
 
     private void formWindowClosing(java.awt.event.WindowEvent evt) {//GEN-FIRST:event_formWindowClosing
-        Runtime.getRuntime().exit(0);
+        scopePanel.close();     // the program exits when the last window is gone
     }//GEN-LAST:event_formWindowClosing
     @Override
     public void keyPressed(KeyEvent e) {
@@ -4,23 +4,21 @@ import gui.DiamondSprite;
 import gui.MapGeoData;
 import java.awt.Cursor;
 import java.awt.Graphics;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
-import java.sql.Connection;
 import java.util.Collection;
 import javax.swing.JPanel;
-import javax.swing.Timer;
+import javax.swing.SwingUtilities;
 import math.OrthographicNavigator;
 import math.OrthographicProjection;
 
 public final class ScopePanel extends JPanel
-        implements MouseListener, MouseMotionListener, MouseWheelListener,
-        ActionListener {
+        implements MouseListener, MouseMotionListener, MouseWheelListener, TrackListener {
+
+    private static final long IDLE_REPAINT = 5000L;      // 5 seconds, so the echoes age
 
     /*
      * Measures the display-scale of the map and tracks in pixels per meter.
@@ -31,38 +29,40 @@ public final class ScopePanel extends JPanel
     private double minScale;
     private double maxScale;
     private boolean displayStep;
+    private volatile long lastRepaint;
     private final OrthographicProjection projection;
     private final OrthographicNavigator navigator;
     private final Renderer renderer;
     private final ProcessTracks process;
     private final Config dc;
-    private final Connection db;
+    private final TickScheduler scheduler;
+    private final TickStage notify;
     
     //
     //private static int middleX = 0;
     //private static int middleY = 0;
 
-    public ScopePanel(ProcessTracks p, Connection con, LatLon gcenter, Config c) {
+    public ScopePanel(ProcessTracks p, LatLon gcenter, Config c, TickScheduler ts) {
         process = p;
         center = gcenter;
         dc = c;
-        db = con;
+        scheduler = ts;
         scale = c.getMapScale();
         minScale = 0.00004;
         maxScale = 1000.0;
         displayStep = false;
+        lastRepaint = 0L;
         setBackground(dc.getColorSetting(Config.COLORS_BACK_GND));
 
         navigator = new OrthographicNavigator(center);
         projection = navigator.getProjection();
-        
-        new Conflict(process, dc);
-        renderer = new Renderer(process, db, projection, navigator, scale, dc);
 
-        // required for regularly changing or blinking symbols
-        Timer timer = new Timer(500, this);
-        timer.setCoalesce(false);
-        timer.start();
+        renderer = new Renderer(process, projection, navigator, scale, dc);
+
+        // repaint when the tracks change, and for blinking symbols
+        notify = new RenderNotify();
+        process.addTrackListener(this);
+        scheduler.addStage(notify);
 
         addMouseListener(this);
         addMouseMotionListener(this);
@@ -74,6 +74,15 @@ public final class ScopePanel extends JPanel
         setFocusTraversalKeysEnabled(false);
     }
 
+    /**
+     * Stop repainting, when the window is closed. The tracks and the
+     * scheduler go on for the other windows.
+     */
+    public void close() {
+        scheduler.removeStage(notify);
+        process.removeTrackListener(this);
+    }
+
     public void setMapData(MapGeoData mapData) {
         renderer.setMapData(mapData);
     }
@@ -123,6 +132,7 @@ public final class ScopePanel extends JPanel
         }
 
         super.paintComponent(graphics);
+        lastRepaint = System.currentTimeMillis();
 
         int x = getWidth() / 2;
         int y = getHeight() / 2;
@@ -160,14 +170,13 @@ public final class ScopePanel extends JPanel
                         if ((x3 < 6) && (y3 < 6)) {
                             Track t = process.getTrack(ds.getAcid());
 
-                            Integer block = (Integer) t.getTrackOption(Track.TRACKBLOCK_POSITION);
-                            block += 1;
+                            int block = t.getBlockPosition() + 1;
 
                             if (block >= 9) {
                                 block = 0;
                             }
 
-                            t.setTrackIntegerOption(Track.TRACKBLOCK_POSITION, block);
+                            t.setBlockPosition(block);
                             repaint();
                             break;
                         }
@@ -218,10 +227,11 @@ public final class ScopePanel extends JPanel
                             int x3 = Math.abs(x2 - ds.getX());
                             int y3 = Math.abs(y2 - ds.getY());
 
-                            if ((x3 < 6) && (y3 < 6)) {
-                                track.setMouseOver(true);
-                            } else {
-                                track.setMouseOver(false);
+                            boolean over = (x3 < 6) && (y3 < 6);
+
+                            if (over != track.isMouseOver()) {
+                                track.setMouseOver(over);
+                                repaint();
                             }
                         }
                     }
@@ -272,15 +282,14 @@ public final class ScopePanel extends JPanel
         return mouseLatLon;
     }
 
-    public void aircraftAdded(Track target) {
-        repaint();
-    }
-
-    public void aircraftUpdated(Track target) {
-        repaint();
-    }
-
-    public void aircraftRemoved(Track target) {
+    /**
+     * Called on the scheduler thread with the tracks changed this tick. One
+     * repaint covers them all, and Swing merges it with any others pending.
+     *
+     * @param changes the TrackChanges representing the tracks that changed
+     */
+    @Override
+    public void tracksChanged(TrackChanges changes) {
         repaint();
     }
 
@@ -291,13 +300,28 @@ public final class ScopePanel extends JPanel
         displayStep = displayStep == false;
     }
 
-    @Override
-    public void actionPerformed(ActionEvent e) {
-        Object o = e.getSource();
+    /*
+     * Runs on the scheduler thread, and flips the display step for blinking
+     * symbols. When the last frame had nothing blinking, and the tracks
+     * haven't changed, the display is left alone except for an occasional
+     * repaint to age the echoes.
+     */
+    class RenderNotify extends TickStage {
 
-        if (o != null && o instanceof Timer) {
-            flipDisplayStep();
-            repaint();
+        RenderNotify() {
+            super("render", TickScheduler.PHASE_RENDER, (int) (500L / TickScheduler.TICK));
+        }
+
+        @Override
+        public void end(long now) {
+            if (renderer.hasBlinking() == false && (now - lastRepaint) < IDLE_REPAINT) {
+                return;
+            }
+
+            SwingUtilities.invokeLater(() -> {
+                flipDisplayStep();
+                repaint();
+            });
         }
     }
 }
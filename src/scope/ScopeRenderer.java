@@ -71,8 +71,8 @@ public abstract class ScopeRenderer {
     }
 
     /* 
-     * NOTE: Doesn't perform clipping yet.  If you roll the Earth over you
-     * will still see the other countries on the other side.
+     * NOTE: The map lines and echoes behind the globe are left out, but
+     * nothing else is clipped yet.
      */
     public abstract void renderer(Graphics graphics, int width, int height, boolean displayStep);
 }
@@ -3,11 +3,15 @@ package scope;
 public final class Shutdown extends Thread {
 
     private final ProcessTracks procTrack;
-    private final TrackDatabase db;
+    private final TrackSource source;
+    private final TickScheduler scheduler;
+    private final Conflict conflict;
 
-    public Shutdown(ProcessTracks s1, TrackDatabase s2) {
+    public Shutdown(ProcessTracks s1, TrackSource s2, TickScheduler s3, Conflict s4) {
         procTrack = s1;
-        db = s2;
+        source = s2;
+        scheduler = s3;
+        conflict = s4;
     }
 
     @Override
@@ -15,7 +19,12 @@ public final class Shutdown extends Thread {
         System.out.println("Shutdown started");
 
         procTrack.close();
-        db.closeDatabase();
+        source.close();
+        scheduler.close();
+        conflict.close();
+
+        System.out.println(scheduler.getStatistics());
+        System.out.println(conflict.getStatistics());
 
         System.runFinalization();
     }
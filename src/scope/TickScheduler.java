@@ -0,0 +1,144 @@
+package scope;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * The one timer of the program.
+ *
+ * Every tick the stages that are due run on the scheduler thread, in the
+ * order of their phase: ingest the reports, expire (dim and drop) the tracks,
+ * look for conflicts, tell the displays to repaint, then any background work.
+ * Stages in the same phase run in the order they were added. The time each
+ * stage takes is kept, for finding out where a slow tick went.
+ */
+public final class TickScheduler {
+
+    public static final long TICK = 250L;                   // milliseconds
+    //
+    public static final int PHASE_INGEST = 0;
+    public static final int PHASE_EXPIRE = 1;
+    public static final int PHASE_CONFLICT = 2;
+    public static final int PHASE_RENDER = 3;
+    public static final int PHASE_BACKGROUND = 4;
+    //
+    private final ScheduledExecutorService executor;
+    private final List<TickStage> stages;       // guarded by this, sorted by phase
+    private final List<TickStage> due;
+    //
+    private long tickCount;
+    private long tickTime;                      // nanoseconds
+    private long maxTickTime;                   // nanoseconds
+
+    public TickScheduler() {
+        stages = new ArrayList<>();
+        due = new ArrayList<>();
+        tickCount = tickTime = maxTickTime = 0L;
+
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "TickScheduler");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void start() {
+        executor.scheduleAtFixedRate(this::tick, 0L, TICK, TimeUnit.MILLISECONDS);
+    }
+
+    public void close() {
+        executor.shutdown();
+
+        try {
+            executor.awaitTermination(TICK * 4L, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+        }
+    }
+
+    /**
+     * Method to add a stage, after the other stages of its phase
+     *
+     * @param stage the TickStage to run
+     */
+    public synchronized void addStage(TickStage stage) {
+        int i = 0;
+
+        while (i < stages.size() && stages.get(i).getPhase() <= stage.getPhase()) {
+            i++;
+        }
+
+        stages.add(i, stage);
+    }
+
+    public synchronized void removeStage(TickStage stage) {
+        stages.remove(stage);
+    }
+
+    private synchronized void tick() {
+        long start = System.nanoTime();
+        long now = System.currentTimeMillis();
+
+        due.clear();
+
+        for (TickStage stage : stages) {
+            if ((tickCount % stage.getPeriod()) == 0L) {
+                due.add(stage);
+            }
+        }
+
+        for (TickStage stage : due) {
+            long t0 = System.nanoTime();
+
+            try {
+                stage.begin(now);
+            } catch (Exception e) {
+                System.err.println("TickScheduler::tick Exception in " + stage.getName() + " begin " + e.toString());
+                stage.errors++;
+            }
+
+            try {
+                stage.end(now);
+            } catch (Exception e) {
+                System.err.println("TickScheduler::tick Exception in " + stage.getName() + " end " + e.toString());
+                stage.errors++;
+            }
+
+            long runTime = System.nanoTime() - t0;
+
+            stage.runs++;
+            stage.totalTime += runTime;
+            stage.maxTime = Math.max(stage.maxTime, runTime);
+        }
+
+        long elapsed = System.nanoTime() - start;
+
+        tickTime += elapsed;
+        maxTickTime = Math.max(maxTickTime, elapsed);
+        tickCount++;
+    }
+
+    /**
+     * Method to return the stage latencies for logging
+     *
+     * @return a String representing the statistics of each stage
+     */
+    public synchronized String getStatistics() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append(String.format("TickScheduler: %d ticks, tick avg %.3f ms max %.3f ms",
+                tickCount, (tickCount == 0L) ? 0.0 : (tickTime / (double) tickCount) / 1.0E6,
+                maxTickTime / 1.0E6));
+
+        for (TickStage stage : stages) {
+            sb.append(String.format("%n  %-12s every %4d ticks, %6d runs, avg %.3f ms max %.3f ms, %d errors",
+                    stage.getName(), stage.getPeriod(), stage.runs,
+                    (stage.runs == 0L) ? 0.0 : (stage.totalTime / (double) stage.runs) / 1.0E6,
+                    stage.maxTime / 1.0E6, stage.errors));
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,62 @@
+package scope;
+
+/*
+ * One stage of work run by the TickScheduler.
+ *
+ * A stage runs every period ticks, in the order of its phase. It gets a
+ * begin() and an end() call each time it runs.
+ *
+ * All of the calls are made on the scheduler thread.
+ */
+public abstract class TickStage {
+
+    private final String name;
+    private final int phase;
+    private final int period;
+    //
+    long runs;              // statistics kept by the scheduler
+    long totalTime;         // nanoseconds
+    long maxTime;           // nanoseconds
+    long errors;
+
+    /**
+     * Create a stage
+     *
+     * @param n a String representing the stage name, for the statistics
+     * @param ph an integer representing the TickScheduler phase
+     * @param p an integer representing how many ticks between runs
+     */
+    protected TickStage(String n, int ph, int p) {
+        name = n;
+        phase = ph;
+        period = Math.max(1, p);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getPhase() {
+        return phase;
+    }
+
+    public int getPeriod() {
+        return period;
+    }
+
+    /**
+     * Called first when the stage runs
+     *
+     * @param now a long representing the tick time in milliseconds
+     */
+    public void begin(long now) {
+    }
+
+    /**
+     * Called last when the stage runs
+     *
+     * @param now a long representing the tick time in milliseconds
+     */
+    public void end(long now) {
+    }
+}
@@ -0,0 +1,136 @@
+package scope;
+
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * A hashed timing wheel of track deadlines.
+ *
+ * Each slot covers RESOLUTION milliseconds, and a deadline goes in the slot
+ * of its time modulo the wheel size. A deadline further away than one turn
+ * of the wheel stays in its slot until the turn it is due. Expiring only
+ * looks at the slots the clock has passed since the last call, so the work
+ * is proportional to the deadlines that come due, not to the track count.
+ *
+ * It is not thread safe, and is only used on the scheduler thread.
+ */
+public final class TimingWheel {
+
+    private static final long RESOLUTION = 1000L;          // 1 second
+    private static final int SLOTS = 512;                   // power of two
+    private static final int MASK = SLOTS - 1;
+    //
+    private final Track[][] tracks;
+    private final long[][] deadlines;
+    private final int[] counts;
+    private long cursor;                                    // next slot time to look at
+    private int size;
+
+    public TimingWheel() {
+        tracks = new Track[SLOTS][];
+        deadlines = new long[SLOTS][];
+        counts = new int[SLOTS];
+        cursor = -1L;
+        size = 0;
+    }
+
+    /**
+     * Method to add a deadline. A deadline already passed comes due on the
+     * next expire().
+     *
+     * @param track the Track the deadline belongs to
+     * @param deadline a long representing the deadline in milliseconds
+     */
+    public void schedule(Track track, long deadline) {
+        long time = deadline / RESOLUTION;
+
+        if (cursor != -1L && time < cursor) {
+            time = cursor;
+        }
+
+        int slot = (int) (time & MASK);
+        int n = counts[slot];
+
+        if (tracks[slot] == null) {
+            tracks[slot] = new Track[8];
+            deadlines[slot] = new long[8];
+        } else if (n == tracks[slot].length) {
+            tracks[slot] = Arrays.copyOf(tracks[slot], n * 2);
+            deadlines[slot] = Arrays.copyOf(deadlines[slot], n * 2);
+        }
+
+        tracks[slot][n] = track;
+        deadlines[slot][n] = deadline;
+        counts[slot] = n + 1;
+        size++;
+    }
+
+    /**
+     * Method to take out the deadlines that have passed
+     *
+     * @param now a long representing the time in milliseconds
+     * @param out a List to receive the tracks whose deadline passed
+     * @return an integer representing the number of tracks added to the list
+     */
+    public int expire(long now, List<Track> out) {
+        long time = now / RESOLUTION;
+        int found = 0;
+
+        if (cursor == -1L) {
+            cursor = time;
+        }
+
+        /*
+         * After a long pause every slot is looked at once
+         */
+        long first = Math.max(cursor, time - MASK);
+
+        for (long t = first; t <= time; t++) {
+            int slot = (int) (t & MASK);
+            Track[] st = tracks[slot];
+            long[] sd = deadlines[slot];
+            int n = counts[slot];
+
+            for (int i = 0; i < n;) {
+                if (sd[i] <= now) {
+                    out.add(st[i]);
+                    found++;
+
+                    n--;
+                    st[i] = st[n];
+                    sd[i] = sd[n];
+                    st[n] = null;
+                } else {
+                    i++;
+                }
+            }
+
+            size -= counts[slot] - n;
+            counts[slot] = n;
+        }
+
+        /*
+         * The current slot may still hold deadlines later in this second,
+         * so it is looked at again next time.
+         */
+        cursor = time;
+
+        return found;
+    }
+
+    public void clear() {
+        for (int i = 0; i < SLOTS; i++) {
+            if (tracks[i] != null) {
+                Arrays.fill(tracks[i], 0, counts[i], null);
+            }
+
+            counts[i] = 0;
+        }
+
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -1,10 +1,10 @@
 package scope;
 
 import java.util.ArrayList;
-import java.util.Enumeration;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import math.OrthographicNavigator;
+import math.FastNavigator;
+import math.Navigator;
 
 /*
  * This class is used to store all track objects, and provide access methods to
@@ -19,39 +19,50 @@ public final class Track {
     public final static int MODE_COAST = 4;
     //
     public static final long ECHO_INTERVAL = 5L * 1000L;        // 5 seconds (12 RPM Antenna)
+    private static final long SITES_INTERVAL = 1500L;           // 1.5 seconds
+    private static final Navigator NAV = new FastNavigator();   // shared, it has no state
+    //
+    public static final int CHANGE_POSITION = 0x01;
+    public static final int CHANGE_ALTITUDE = 0x02;
+    public static final int CHANGE_VECTOR = 0x04;              // ground speed and track
+    public static final int CHANGE_SQUAWK = 0x08;
+    public static final int CHANGE_CALLSIGN = 0x10;
+    public static final int CHANGE_FLAGS = 0x20;               // alert, emergency, spi, on ground
+    public static final int CHANGE_VERTICAL = 0x40;            // vertical rate and trend
     //public static final double MS_PER_NM = 1852.0 / 3600.00;  // Metres per NM
 
     /*
-     * Contains a list of the most recent echoes of this track. The list must be
-     * sorted, so that the most recent echo is the first element of the vector.
+     * Contains the most recent echoes of this track. They are filled from the
+     * database echo poll, so the renderer never has to query for them.
      */
-    //private List<Echo> echoHistory;
+    private final EchoHistory echoHistory;
     private List<String> sites;
+    private long sitesTime;
 
     /*
-     * Each track can have options, so we store the options by name and object
-     * value.
+     * Each track can have options, packed into one byte. The block position
+     * is one of the eight positions around the clock, or 0 for automatic.
      */
-    private ConcurrentHashMap<String, Object> trackOptions;
-    //
-    public static final String TRACKBLOCK_DIM = "trackBlockDim";
-    public static final String TRACKBLOCK_BRIGHT = "trackBlockBright";
-    public static final String TRACKBLOCK_POSITION = "trackBlockPosition";
+    private static final int OPTION_DIM = 0x01;          // de-clutter the track by making it dim
+    private static final int OPTION_BRIGHT = 0x02;       // highlight the track by making it brighter
+    private static final int OPTION_POSITION = 0xF0;
+    private static final int POSITION_SHIFT = 4;
+    private volatile byte trackOptions;
     /*
      * Climb/Descend trend box averager
      */
-    private long verticalTrend_time;
-    private int verticalRate;
-    private int verticalTrend;
-    private boolean verticalDIM;
+    private volatile long verticalTrend_time;
+    private volatile boolean verticalDIM;
     //
     private String callsign;
     private String acid;
-    private String registration;
+    private final int icao;                     // TrackStore key
+    private int slot;                           // TrackColumns slot, -1 if none
+    private volatile String registration;      // may be set by RegistrationLookup
     private int mode;
+    private int quality;
+    private String qualitySite;
     private String squawk;
-    private int altitude;
-    private int amsl_altitude;
     //
     private boolean mouseOver;
     private boolean alert;
@@ -59,21 +70,24 @@ public final class Track {
     private boolean spi;
     private boolean isOnGround;                // Might be on ground but no position
     //
-    private double latitude;
-    private double longitude;
     private double heading;
     private double bearing;
     private double range;
-    private double groundSpeed;
-    private double groundTrack;
-    private boolean useComputed;
-    private double computedGroundSpeed;         // Some planes don't send speed
-    private double computedGroundTrack;         // Some planes don't send heading
+    /*
+     * The position and motion, swapped in whole by each update
+     */
+    private volatile TrackState state;
     //
-    private long updatedPosTime;
     private long updatedTime;
+    private long dimDeadline;                   // on the ProcessTracks timing wheels
+    private long dropDeadline;
+    private int events;                         // TrackChanges not yet sent, scheduler thread only
+    private int changes;                        // CHANGE bits not yet sent, scheduler thread only
+    private int changeCount;                    // goes up with every change
     //
-    private ConcurrentHashMap<String, Integer> conflicts;  // List of target ID's and altitude that are possible conflicts
+    private int[] conflicts;                    // TrackColumns slots of the tracks that are possible conflicts
+    private volatile int conflictCount;
+    private volatile ClosestApproach approach;  // predicted conflict, null if none
     //
     private Config dc;
 
@@ -90,45 +104,29 @@ public final class Track {
         
         dc = d;
         acid = a;
+        icao = TrackStore.toKey(a);
+        slot = -1;
         callsign = "";
         registration = "";
         mode = MODE_NORMAL;
+        quality = 0;
+        qualitySite = "";
         squawk = "0000";
-        latitude = 0.0;
-        longitude = 0.0;
-        altitude = -9999;
-        amsl_altitude = 0;
-        verticalRate = 0;
-        verticalTrend = 0;
         alert = emergency = spi = mouseOver = isOnGround = false; // Might be on ground but no position
         heading = 0.0;                    // Aircraft Magnetic heading (if known)
-        groundSpeed = 0.0;
-        groundTrack = 0.0;
-        updatedPosTime = 0L;        // might not have a position
+        state = TrackState.EMPTY;   // might not have a position
         verticalTrend_time = now;   // good default
         updatedTime = now;           // good default
         verticalDIM = false;
-
-        /*
-         * Some planes don't ever send a velocity message, so assume the worst
-         */
-        useComputed = true;
-        computedGroundSpeed = 0.0;        // Some planes don't send speed
-        computedGroundTrack = 0.0;        // Some planes don't send heading
+        dimDeadline = dropDeadline = 0L;
+        events = changes = changeCount = 0;
+        sitesTime = now;
         sites = new ArrayList<>();
-        conflicts = new ConcurrentHashMap<>();
-        trackOptions = new ConcurrentHashMap<>();
-
-        try {
-            // de-clutter the track by making it dim
-            trackOptions.put(TRACKBLOCK_DIM, Boolean.FALSE);
-            // highlight the track by making it brighter
-            trackOptions.put(TRACKBLOCK_BRIGHT, Boolean.FALSE);
-            // One of six positions around the clock
-            trackOptions.put(TRACKBLOCK_POSITION, 0);
-        } catch (NullPointerException e) {
-            System.err.println("Track::Constructor exception during initialization put " + e.toString());
-        }
+        echoHistory = new EchoHistory();
+        conflicts = new int[2];
+        conflictCount = 0;
+        approach = null;
+        trackOptions = 0;
     }
 
     /**
@@ -140,6 +138,15 @@ public final class Track {
         return acid;
     }
 
+    /**
+     * Method to return the echo history of this track
+     *
+     * @return an EchoHistory representing the most recent echoes
+     */
+    public EchoHistory getEchoHistory() {
+        return echoHistory;
+    }
+
     public void setHeading(double head) {
         heading = head;
     }
@@ -174,48 +181,132 @@ public final class Track {
         updatedTime = val;
     }
 
-    public ConcurrentHashMap<String, Object> getTrackOptions() {
-        return trackOptions;
+    /*
+     * The options are changed by the scheduler and Swing threads, so the
+     * changes are locked. Reading them needs no lock.
+     */
+    private synchronized void setOptions(int mask, int val) {
+        trackOptions = (byte) ((trackOptions & ~mask) | (val & mask));
     }
 
-    public Object getTrackOption(String option) {
-        Object obj = (Object) null;
+    public boolean isDim() {
+        return (trackOptions & OPTION_DIM) != 0;
+    }
 
-        try {
-            obj = (Object) trackOptions.get(option);
-            return obj;
-        } catch (NullPointerException e) {
-            System.err.println("Track::getTrackOption Exception during get " + e.toString());
-        }
+    public void setDim(boolean val) {
+        setOptions(OPTION_DIM, val ? OPTION_DIM : 0);
+    }
 
-        return obj;     // obj == null on exception
+    public boolean isBright() {
+        return (trackOptions & OPTION_BRIGHT) != 0;
     }
 
-    public void setTrackBooleanOption(String option, Boolean val) {
-        try {
-            trackOptions.put(option, val);
-        } catch (NullPointerException e) {
-            System.err.println("Track::setTrackBooleanOption Exception during put " + e.toString());
-        }
+    public void setBright(boolean val) {
+        setOptions(OPTION_BRIGHT, val ? OPTION_BRIGHT : 0);
     }
 
-    public void setTrackIntegerOption(String option, Integer val) {
-        try {
-            trackOptions.put(option, val);
-        } catch (NullPointerException e) {
-            System.err.println("Track::setTrackIntegerOption Exception during put " + e.toString());
+    /**
+     * Method to return where the track block is drawn
+     *
+     * @return an integer representing the position around the clock 1 to 8,
+     * or 0 for automatic
+     */
+    public int getBlockPosition() {
+        return (trackOptions & OPTION_POSITION) >>> POSITION_SHIFT;
+    }
+
+    public void setBlockPosition(int val) {
+        setOptions(OPTION_POSITION, val << POSITION_SHIFT);
+    }
+
+    /**
+     * Method to return the position and motion of the track. Take it once,
+     * and read all of the values from it, so they all come from the same
+     * update.
+     *
+     * @return a TrackState representing the latest position and motion
+     */
+    public TrackState getState() {
+        return state;
+    }
+
+    /**
+     * Method to take the position and motion from a target report. The
+     * values the report doesn't have are kept, and a new state is only
+     * made when something changed. This is called on the scheduler thread.
+     *
+     * @param u a TrackUpdate representing the target report
+     */
+    public void apply(TrackUpdate u) {
+        TrackState s = state;
+        double lat = s.getLatitude();
+        double lon = s.getLongitude();
+        long posTime = s.getUpdatedPosTime();
+        int alt = s.getAltitude();
+        boolean computed = s.getUseComputed();
+        int bits = 0;
+
+        /*
+         * If a good position is followed by a 0.0 then keep the old
+         * position
+         */
+        if ((lat != u.latitude || lon != u.longitude) && u.latitude != 0.0 && u.longitude != 0.0) {
+            lat = u.latitude;
+            lon = u.longitude;
+            posTime = u.utcupdate;
+            bits |= CHANGE_POSITION;
+        }
+
+        if (u.altitude != -9999 && u.altitude != alt) {
+            alt = u.altitude;
+            bits |= CHANGE_ALTITUDE;
+        }
+
+        if (u.groundSpeed != 0.0) {
+            computed = false;
+        }
+
+        if (u.groundSpeed != s.getGroundSpeed() || u.groundTrack != s.getGroundTrack()
+                || u.computedGroundSpeed != s.getComputedGroundSpeed()
+                || u.computedGroundTrack != s.getComputedGroundTrack()
+                || computed != s.getUseComputed()) {
+            bits |= CHANGE_VECTOR;
+        }
+
+        if (u.verticalRate != s.getVerticalRate() || u.verticalTrend != s.getVerticalTrend()) {
+            bits |= CHANGE_VERTICAL;
+
+            if (u.verticalTrend != s.getVerticalTrend()) {
+                verticalTrend_time = System.currentTimeMillis();
+            }
+        }
+
+        if (bits == 0 && u.amslAltitude == s.getAMSLAltitude()) {
+            return;
+        }
+
+        state = new TrackState(lat, lon, alt, u.amslAltitude, u.groundSpeed, u.groundTrack,
+                u.computedGroundSpeed, u.computedGroundTrack, computed,
+                u.verticalRate, u.verticalTrend, posTime);
+
+        if ((bits & CHANGE_POSITION) != 0) {
+            setDim(false);
+            verticalDIM = false;
+        }
+
+        for (int bit = 1; bit <= bits; bit <<= 1) {
+            if ((bits & bit) != 0) {
+                changed(bit);
+            }
         }
     }
 
-    //public void setUseComputed(boolean val) {
-    //    useComputed = val;
-    //}
     public boolean getUseComputed() {
-        return useComputed;
+        return state.getUseComputed();
     }
 
     public long getUpdatedPosTime() {
-        return updatedPosTime;
+        return state.getUpdatedPosTime();
     }
 
     /**
@@ -230,10 +321,29 @@ public final class Track {
         if (!callsign.equals(val)) {
             if (!val.equals("")) {
                 callsign = val;
+                changed(CHANGE_CALLSIGN);
             }
         }
     }
 
+    /**
+     * Method to return the address the track is stored under
+     *
+     * @return an integer representing the 24-bit ICAO address, with bit 24
+     * set for a non-ICAO address
+     */
+    public int getIcao() {
+        return icao;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public void setSlot(int val) {
+        slot = val;
+    }
+
     public String getCallsign() {
         return callsign;
     }
@@ -254,7 +364,20 @@ public final class Track {
         return sites.size();
     }
 
+    /**
+     * Method to add a site reporting this track. The list starts over every
+     * SITES_INTERVAL, so it only holds the sites reporting it lately.
+     *
+     * @param val a String representing the site ID
+     */
     public void addSiteID(String val) {
+        long now = System.currentTimeMillis();
+
+        if ((now - sitesTime) >= SITES_INTERVAL) {
+            sites.clear();
+            sitesTime = now;
+        }
+
         try {
             if (!sites.contains(val)) {
                 sites.add(val);
@@ -268,13 +391,95 @@ public final class Track {
     }
 
     public String[] getSites() {
-        return (String[]) sites.toArray();
+        return sites.toArray(new String[0]);
     }
 
     public void clearSites() {
         sites.clear();
     }
 
+    public long getDimDeadline() {
+        return dimDeadline;
+    }
+
+    public void setDimDeadline(long val) {
+        dimDeadline = val;
+    }
+
+    /*
+     * Return which values have changed since the last batch, and start
+     * again. A setter only marks a change when the value is different. The
+     * bits are only handed out in the TrackChanges batch, by the notify
+     * stage.
+     */
+    int takeChanges() {
+        int bits = changes;
+
+        changes = 0;
+        return bits;
+    }
+
+    /**
+     * Method to return a count of the changes made. It goes up even when the
+     * change bit was already set, so a caller can tell if its own update
+     * changed anything.
+     *
+     * @return an integer representing the number of changes
+     */
+    public int getChangeCount() {
+        return changeCount;
+    }
+
+    private void changed(int bit) {
+        changes |= bit;
+        changeCount++;
+    }
+
+    public int getEvents() {
+        return events;
+    }
+
+    public void setEvents(int val) {
+        events = val;
+    }
+
+    public long getDropDeadline() {
+        return dropDeadline;
+    }
+
+    public void setDropDeadline(long val) {
+        dropDeadline = val;
+    }
+
+    /**
+     * Method to return the track quality of the best radar reporting it
+     *
+     * @return an integer representing the track quality
+     */
+    public int getQuality() {
+        return quality;
+    }
+
+    /**
+     * Method to return the radar that reported the best track quality
+     *
+     * @return a String representing the radar ID
+     */
+    public String getQualitySite() {
+        return qualitySite;
+    }
+
+    /**
+     * Method to store the track quality and the radar that reported it
+     *
+     * @param val an integer representing the track quality
+     * @param site a String representing the radar ID
+     */
+    public void setQuality(int val, String site) {
+        quality = val;
+        qualitySite = site;
+    }
+
     public int getMode() {
         return mode;
     }
@@ -291,6 +496,7 @@ public final class Track {
     public void setSquawk(String val) {
         if (!squawk.equals(val)) {
             squawk = val;
+            changed(CHANGE_SQUAWK);
         }
     }
 
@@ -303,71 +509,36 @@ public final class Track {
         return squawk;
     }
 
-    /**
-     * Method to set the track altitude in feet
-     *
-     * @param val an integer representing the track altitude in feet
-     */
-    public void setAltitude(int val) {
-        if (val != -9999) {
-            altitude = val;
-        }
-    }
-
     /**
      * Method to return the track altitude in feet
      *
      * @return an integer representing the track altitude in feet
      */
     public int getAltitude() {
-        return altitude;
-    }
-
-    public void setAMSLAltitude(int altCorrected) {
-        amsl_altitude = altCorrected;
-    }
-
-    public void setAMSLAltitudeZero() {
-        amsl_altitude = 0;
+        return state.getAltitude();
     }
 
     public int getAMSLAltitude() {
-        return amsl_altitude;
+        return state.getAMSLAltitude();
     }
     
     public int getVerticalRate() {
-        return verticalRate;
+        return state.getVerticalRate();
     }
 
-    public synchronized int getVerticalTrend() {
+    public int getVerticalTrend() {
         if (verticalDIM == true) {
             return 0;   // level
         }
         
-        return verticalTrend;
+        return state.getVerticalTrend();
     }
 
-    public synchronized void setVerticalDIM() {
+    public void setVerticalDIM() {
         verticalDIM = true;
     }
 
-    /**
-     *
-     * @param val1 vertical rate in fps
-     * @param val2 trend -1, 0, or 1
-     */
-    public synchronized void setVerticalRateAndTrend(int val1, int val2) {
-        if (verticalRate != val1) {
-            verticalRate = val1;
-        }
-        
-        if (verticalTrend != val2) {
-            verticalTrend = val2;
-            verticalTrend_time = System.currentTimeMillis();
-        }
-    }
-
-    public synchronized long getVerticalTrendUpdateTime() {
+    public long getVerticalTrendUpdateTime() {
         return verticalTrend_time;
     }
 
@@ -384,6 +555,7 @@ public final class Track {
             }
 
             alert = val;
+            changed(CHANGE_FLAGS);
         }
     }
 
@@ -400,6 +572,7 @@ public final class Track {
             }
 
             emergency = val;
+            changed(CHANGE_FLAGS);
         }
     }
 
@@ -416,6 +589,7 @@ public final class Track {
             }
 
             spi = val;
+            changed(CHANGE_FLAGS);
         }
     }
 
@@ -428,6 +602,7 @@ public final class Track {
             }
 
             isOnGround = val;
+            changed(CHANGE_FLAGS);
         }
     }
 
@@ -435,68 +610,32 @@ public final class Track {
         return isOnGround;
     }
 
-    public void setGroundSpeed(double val) {
-        groundSpeed = val;
-
-        if (val != 0.0) {
-            useComputed = false;
-        }
-    }
-
     public double getGroundSpeed() {
-        return groundSpeed;
-    }
-
-    public void setGroundTrack(double val) {
-        groundTrack = val;
+        return state.getGroundSpeed();
     }
 
     public double getGroundTrack() {
-        return groundTrack;
-    }
-
-    public void setComputedGroundTrack(double val) {
-        computedGroundTrack = val;
-    }
-
-    public void setComputedGroundSpeed(double val) {
-        computedGroundSpeed = val;
+        return state.getGroundTrack();
     }
 
     public double getComputedGroundTrack() {
-        return computedGroundTrack;
+        return state.getComputedGroundTrack();
     }
 
     public double getComputedGroundSpeed() {
-        return computedGroundSpeed;
-    }
-
-    public void setPosition(double lat, double lon, long time) {
-        if ((latitude != lat) && (longitude != lon)) {
-            /*
-             * If a good position is followed by a 0.0 then keep the old
-             * position
-             */
-            if (lat != 0.0 && lon != 0.0) {
-                latitude = lat;
-                longitude = lon;
-                updatedPosTime = time;
-                setTrackBooleanOption(TRACKBLOCK_DIM, Boolean.FALSE);
-                verticalDIM = false;
-            }
-        }
+        return state.getComputedGroundSpeed();
     }
 
     public LatLon getPosition() {
-        return new LatLon(latitude, longitude);
+        return state.getPosition();
     }
 
     public double getLatitude() {
-        return latitude;
+        return state.getLatitude();
     }
 
     public double getLongitude() {
-        return longitude;
+        return state.getLongitude();
     }
 
     public double getBearing() {
@@ -515,14 +654,13 @@ public final class Track {
         range = val;
     }
 
-    public synchronized String[] getConflicts() {
-        List<String> result = new ArrayList<>();
-
-        for (Enumeration en = conflicts.keys(); en.hasMoreElements();) {
-            result.add((String) en.nextElement());
-        }
-
-        return (String[]) result.toArray();
+    /**
+     * Method to return the possible conflicts of this track
+     *
+     * @return an int array representing the TrackColumns slots of the other tracks
+     */
+    public synchronized int[] getConflicts() {
+        return Arrays.copyOf(conflicts, conflictCount);
     }
 
     /**
@@ -531,23 +669,20 @@ public final class Track {
      * @return a boolean Representing whether there are conflicts on the queue
      */
     public boolean hasConflicts() {
-        return !conflicts.isEmpty();
+        return conflictCount != 0;
     }
 
     /**
-     * Method to see if the specified ACID is on the table
+     * Method to see if the specified track is on the table
      *
-     * @param acid
-     * @return a boolean representing whether the ACID is on the table or not
+     * @param slot an integer representing the TrackColumns slot of the other track
+     * @return a boolean representing whether the track is on the table or not
      */
-    public boolean hasACIDConflicts(String acid) {
-        try {
-            if (conflicts.containsKey(acid)) {
+    public synchronized boolean hasConflict(int slot) {
+        for (int i = 0; i < conflictCount; i++) {
+            if (conflicts[i] == slot) {
                 return true;
             }
-        } catch (NullPointerException e) {
-            System.err.println("Track::hasACIDConflict Exception during containsKey " + e.toString());
-            return false;
         }
 
         return false;
@@ -556,40 +691,58 @@ public final class Track {
     /**
      * Adds a new conflict for this track on the conflict table
      *
-     * @param conflict The new conflict ACID to be stored on the table.
-     * @param alt
+     * @param slot an integer representing the TrackColumns slot of the other track
      */
-    public void insertConflict(String conflict, int alt) {
-        try {
-            conflicts.put(conflict, alt);
-        } catch (NullPointerException e) {
-            System.err.println("Track::insertConflict Exception during put " + e.toString());
+    public synchronized void insertConflict(int slot) {
+        if (hasConflict(slot)) {
+            return;
         }
+
+        if (conflictCount == conflicts.length) {
+            conflicts = Arrays.copyOf(conflicts, conflictCount * 2);
+        }
+
+        conflicts[conflictCount] = slot;
+        conflictCount++;
     }
 
-    public void removeConflict(String conflict) {
-        try {
-            conflicts.remove(conflict);
-        } catch (NullPointerException e) {
-            System.err.println("Track::removeConflict Exception during remove " + e.toString());
+    public synchronized void removeConflict(int slot) {
+        for (int i = 0; i < conflictCount; i++) {
+            if (conflicts[i] == slot) {
+                conflicts[i] = conflicts[conflictCount - 1];
+                conflictCount--;
+                return;
+            }
         }
     }
 
-    public void removeAllConflict() {
-        conflicts.clear();
+    public synchronized void removeAllConflict() {
+        conflictCount = 0;
+    }
+
+    /**
+     * Method to return the predicted conflict of this track
+     *
+     * @return a ClosestApproach representing the soonest predicted conflict,
+     * or null if none
+     */
+    public ClosestApproach getClosestApproach() {
+        return approach;
+    }
+
+    public void setClosestApproach(ClosestApproach val) {
+        approach = val;
     }
 
     /*
      * Returns the coordinates or 0,0 for future position
      *
-     * TODO
-     *
-     * I'm thinking about using this for showing an intercept point
-     * between two tracks.
+     * The Conflict look-ahead uses this for the point where a track will
+     * be at its closest approach to another.
      */
     public LatLon getFuturePosition(Track target, long seconds, boolean computed) {
-        OrthographicNavigator nav = new OrthographicNavigator();
-        LatLon Pos = target.getPosition();
+        TrackState s = target.getState();
+        LatLon Pos = s.getPosition();
 
         /*
          * Possible that track position hasn't been received yet
@@ -600,9 +753,9 @@ public final class Track {
 
         try {
             if (computed) {
-                Pos = nav.getFutureLocation(Pos, target.getComputedGroundTrack(), target.getComputedGroundSpeed(), seconds);
+                Pos = NAV.getFutureLocation(Pos, s.getComputedGroundTrack(), s.getComputedGroundSpeed(), seconds);
             } else {
-                Pos = nav.getFutureLocation(Pos, target.getGroundTrack(), target.getGroundSpeed(), seconds);
+                Pos = NAV.getFutureLocation(Pos, s.getGroundTrack(), s.getGroundSpeed(), seconds);
             }
         } catch (Exception e) {
             Pos = new LatLon();
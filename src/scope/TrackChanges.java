@@ -0,0 +1,95 @@
+package scope;
+
+/*
+ * The tracks that changed during one tick, and how.
+ *
+ * The events of a track are or'ed together, so a track that moved three
+ * times in the tick is only in the list once. A track added and dropped in
+ * the same tick is left out, a dropped track only has DROPPED, and a track
+ * just added only has ADDED. The Track CHANGE bits of each track are passed
+ * along too, so a listener can redo only the work the changed values need.
+ *
+ * The CHANGE bits are only handed out here, and each batch only has the
+ * changes since the batch before. A listener that wants them must take them
+ * from the batch when it is called, as they are not kept on the track, and
+ * are not sent again if the listener fails.
+ *
+ * It is not changed after it is sent to the listeners.
+ */
+public final class TrackChanges {
+
+    public static final int ADDED = 0x01;
+    public static final int MOVED = 0x02;       // new position
+    public static final int CHANGED = 0x04;     // new data, but not a new position
+    public static final int DIMMED = 0x08;
+    public static final int DROPPED = 0x10;
+    //
+    private final long version;
+    private final Track[] tracks;
+    private final int[] events;
+    private final int[] fields;
+    private final int count;
+    private final int all;
+
+    TrackChanges(long v, Track[] t, int[] e, int[] f, int n) {
+        int or = 0;
+
+        for (int i = 0; i < n; i++) {
+            or |= e[i];
+        }
+
+        version = v;
+        tracks = t;
+        events = e;
+        fields = f;
+        count = n;
+        all = or;
+    }
+
+    /**
+     * Method to return the version of the snapshot the changes are in
+     *
+     * @return a long representing the TrackSnapshot version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public Track getTrack(int i) {
+        return tracks[i];
+    }
+
+    /**
+     * Method to return the events of one track
+     *
+     * @param i an integer representing the index of the track
+     * @return an integer representing the event bits
+     */
+    public int getEvents(int i) {
+        return events[i];
+    }
+
+    /**
+     * Method to return which values of one track changed
+     *
+     * @param i an integer representing the index of the track
+     * @return an integer representing the Track CHANGE bits
+     */
+    public int getChanges(int i) {
+        return fields[i];
+    }
+
+    /**
+     * Method to tell if any track had one of the events
+     *
+     * @param mask an integer representing the event bits to look for
+     * @return a boolean representing whether any of them happened
+     */
+    public boolean contains(int mask) {
+        return (all & mask) != 0;
+    }
+}
@@ -0,0 +1,119 @@
+package scope;
+
+import java.util.Arrays;
+
+/*
+ * The numbers the scans use, kept in parallel arrays beside the Track
+ * objects.
+ *
+ * Each track has a slot, and its position, altitude, speed, track and times
+ * are copied into the arrays at that slot each time it is updated. A scan
+ * over the arrays reads contiguous memory instead of chasing each Track
+ * around the heap. Freed slots are used again, so the arrays stay about as
+ * long as the most tracks seen at once.
+ *
+ * It is only used on the scheduler thread. Other threads read the dense copy
+ * in the TrackSnapshot.
+ */
+public final class TrackColumns {
+
+    private static final int START = 256;
+    //
+    double[] latitude;
+    double[] longitude;
+    int[] altitude;             // -9999 if unknown
+    float[] groundSpeed;
+    float[] groundTrack;
+    int[] verticalRate;         // feet per minute
+    long[] updatedPosTime;
+    long[] updatedTime;
+    Track[] track;              // the track in each slot, null if free
+    //
+    private int[] free;
+    private int freeCount;
+    private int length;         // slots handed out so far
+
+    public TrackColumns() {
+        latitude = new double[START];
+        longitude = new double[START];
+        altitude = new int[START];
+        groundSpeed = new float[START];
+        groundTrack = new float[START];
+        verticalRate = new int[START];
+        updatedPosTime = new long[START];
+        updatedTime = new long[START];
+        track = new Track[START];
+        free = new int[START];
+        freeCount = 0;
+        length = 0;
+    }
+
+    /**
+     * Method to hand out a slot for a new track
+     *
+     * @return an integer representing the slot
+     */
+    public int allocate() {
+        if (freeCount > 0) {
+            return free[--freeCount];
+        }
+
+        if (length == latitude.length) {
+            int n = length * 2;
+
+            latitude = Arrays.copyOf(latitude, n);
+            longitude = Arrays.copyOf(longitude, n);
+            altitude = Arrays.copyOf(altitude, n);
+            groundSpeed = Arrays.copyOf(groundSpeed, n);
+            groundTrack = Arrays.copyOf(groundTrack, n);
+            verticalRate = Arrays.copyOf(verticalRate, n);
+            updatedPosTime = Arrays.copyOf(updatedPosTime, n);
+            updatedTime = Arrays.copyOf(updatedTime, n);
+            track = Arrays.copyOf(track, n);
+        }
+
+        return length++;
+    }
+
+    /**
+     * Method to give back the slot of a dropped track
+     *
+     * @param slot an integer representing the slot
+     */
+    public void free(int slot) {
+        if (slot < 0) {
+            return;
+        }
+
+        latitude[slot] = longitude[slot] = 0.0;
+        track[slot] = null;
+        altitude[slot] = -9999;
+
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, freeCount * 2);
+        }
+
+        free[freeCount++] = slot;
+    }
+
+    /**
+     * Method to copy the track numbers into its slot
+     *
+     * @param t the Track that was updated
+     */
+    public void update(Track t) {
+        int slot = t.getSlot();
+        TrackState s = t.getState();
+
+        track[slot] = t;
+
+        latitude[slot] = s.getLatitude();
+        longitude[slot] = s.getLongitude();
+        altitude[slot] = s.getAltitude();
+        groundSpeed[slot] = (float) s.getSpeed();
+        groundTrack[slot] = (float) s.getCourse();
+        verticalRate[slot] = s.getVerticalRate();
+        updatedPosTime[slot] = s.getUpdatedPosTime();
+        updatedTime[slot] = t.getUpdatedTime();
+    }
+}
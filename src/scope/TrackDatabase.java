@@ -1,290 +1,415 @@
 package scope;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
+import java.io.File;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-public final class TrackDatabase extends Thread {
+/*
+ * The MySQL database TrackSource
+ *
+ * Polls the target table populated by the ADSBMySQL application once a
+ * second, along with the target echoes and the airport metar. The aircraft
+ * registrations are looked up in the background by RegistrationLookup, or
+ * with db.registrations = preload, come from a RegistrationIndex of the whole
+ * modestable. All of the queries share one connection pool, and use prepared
+ * statements cached on each connection.
+ */
+public final class TrackDatabase implements TrackSource {
 
     private static final long RATE1 = 15L * 60L * 1000L;    // 15 minutes
+    private static final long RATE2 = 1000L;                // 1 second, no need to hammer database
+    private static final long RESYNC = 30L * 1000L;         // 30 seconds
+    private static final long OVERLAP = 2L * 1000L;         // 2 seconds
+    private static final long ECHO_WAIT = 10L * 1000L;      // 10 seconds for the track of an echo to show up
+    private static final long ECHO_HISTORY = ((60L * 60L) + 10L) * 1000L;  // max echo minutes
     //
-    private Thread database;
-    private static boolean EOF;
-    private boolean metarValid;
+    // We assume that one or more radars are populating
+    // the database. Thus, the ACID will appear more than
+    // once, and may have different track quality values,
+    // so pick the greatest track quality.
     //
-    private int pressureAlt;
+    private static final String TARGET_ALL = "SELECT * FROM adsb.target WHERE (acid,quality) "
+            + "IN (SELECT acid,MAX(quality) FROM adsb.target GROUP BY acid)";
+    private static final String TARGET_CHANGED = "SELECT * FROM adsb.target WHERE utcupdate > ?";
+    private static final String ECHO_CHANGED = "SELECT acid,latitude,longitude,altitude,verticalTrend,utcdetect"
+            + " FROM targetecho WHERE utcdetect >= ? ORDER BY utcdetect ASC";
+    private static final String METAR = "SELECT t.airport, t.utcupdate, t.pressureAlt FROM "
+            + "adsb.metar t INNER JOIN (SELECT airport, MAX(utcupdate) AS "
+            + "MaxDate FROM adsb.metar GROUP BY airport) tm "
+            + "ON t.airport = tm.airport "
+            + "AND t.utcupdate = tm.MaxDate "
+            + "AND t.airport = ?";
+    //
+    private volatile boolean metarValid;
+    //
+    private volatile int pressureAlt;
+    private long echoTime;
+    private final Map<String, Long> echoesRead;     // acid and time of the echoes in the overlap
+    private long targetTime;
+    private long resyncTime;
     //
     private String airport;
     //
     private Config config;
     private ProcessTracks process;
-    private Connection db;
+    private ConnectionPool pool;
+    private RegistrationLookup registrations;
+    private RegistrationIndex registrationIndex;
     //
-    private final Timer timer1;
-    private final TimerTask task1;
-    
-    public TrackDatabase(ProcessTracks p, Config cf) {
+    private final TickScheduler scheduler;
+    private final TickStage stage1, stage2;
+
+    public TrackDatabase(ProcessTracks p, Config cf, TickScheduler ts) {
         process = p;
         config = cf;
-        EOF = false;
+        scheduler = ts;
         metarValid = false;
         pressureAlt = 0;
-
-        database = new Thread(this);
-        database.setName("TrackDatabase");
+        echoTime = System.currentTimeMillis() - ECHO_HISTORY;
+        echoesRead = new HashMap<>();
+        targetTime = 0L;
+        resyncTime = 0L;            // start with a full poll
 
         airport = cf.getHomeName().trim();     // might be version number instead of airport
 
         try {
             Class.forName("com.mysql.cj.jdbc.Driver");
-            db = DriverManager.getConnection(config.getDatabaseURL(), config.getDatabaseLogin(), config.getDatabasePassword());
+            pool = new ConnectionPool(config, config.getDatabaseConnections());
         } catch (ClassNotFoundException | SQLException e) {
             System.err.println("TrackDatabase Fatal: Unable to open database " + config.getDatabaseURL());
             System.exit(-1);
         }
 
-        task1 = new MetarRefresh();
-        timer1 = new Timer();
+        registrations = null;
+        registrationIndex = null;
+
+        if (config.getDatabaseRegistrations().equals("preload")) {
+            registrationIndex = new RegistrationIndex(new File(config.getRegistrationIndexFile()), pool, process, scheduler);
+            process.setRegistrationIndex(registrationIndex);
+        } else {
+            registrations = new RegistrationLookup(pool, process);
+        }
+
+        stage1 = new MetarRefresh();
+        stage2 = new DatabasePoll();
     }
-    
-    public void startDatabase() {
-        database.start();
-        timer1.scheduleAtFixedRate(task1, 0L, RATE1);
+
+    @Override
+    public void start() {
+        scheduler.addStage(stage2);
+        scheduler.addStage(stage1);
+
+        if (registrationIndex != null) {
+            registrationIndex.start();
+        }
     }
 
-    public void closeDatabase() {
-        timer1.cancel();
-        EOF = true;
+    @Override
+    public void close() {
+        scheduler.removeStage(stage1);
+        scheduler.removeStage(stage2);
 
-        try {
-            db.close();
-        } catch (SQLException e) {
-            System.out.println("TrackDatabase::close Closing Bug " + e.toString());
-            System.exit(-1);
+        if (registrations != null) {
+            registrations.close();
+            System.out.println(registrations.getStatistics());
+        }
+
+        if (registrationIndex != null) {
+            registrationIndex.close();
         }
+
+        System.out.println(pool.getStatistics());
+        pool.close();
+    }
+
+    /*
+     * The targetecho table is read each poll
+     */
+    @Override
+    public boolean hasEchoHistory() {
+        return true;
+    }
+
+    /**
+     * Method to return the connection pool, for others reading the database
+     *
+     * @return a ConnectionPool
+     */
+    public ConnectionPool getConnectionPool() {
+        return pool;
     }
 
-    public Connection getDatabaseConnection() {
-        return db;
+    /*
+     * Close a result set, ignoring any error. The statement stays open, as
+     * it belongs to the connection cache.
+     */
+    private static void closeResults(ResultSet rs) {
+        if (rs != null) {
+            try {
+                rs.close();
+            } catch (SQLException e) {
+            }
+        }
     }
 
-    class MetarRefresh extends TimerTask {
+    class MetarRefresh extends TickStage {
+
+        MetarRefresh() {
+            super("metar", TickScheduler.PHASE_BACKGROUND, (int) (RATE1 / TickScheduler.TICK));
+        }
 
         @Override
-        public void run() {
-            Statement query = null;
+        public void begin(long now) {
+            PooledConnection con = null;
             ResultSet rs = null;
-            String queryString;
-            
-            // read the latest metar from database
-            queryString = String.format("SELECT t.airport, t.utcupdate, t.pressureAlt FROM "
-                    + "adsb.metar t INNER JOIN (SELECT airport, MAX(utcupdate) AS "
-                    + "MaxDate FROM adsb.metar GROUP BY airport) tm "
-                    + "ON t.airport = tm.airport "
-                    + "AND t.utcupdate = tm.MaxDate "
-                    + "AND t.airport = '%s'",
-                    airport);
 
+            // read the latest metar from database
             try {
-                query = db.createStatement();
-                rs = query.executeQuery(queryString);
-                
+                con = pool.getConnection();
+                PreparedStatement query = con.prepare(METAR);
+                query.setString(1, airport);
+                rs = query.executeQuery();
+
                 if (rs.next()) {
                     pressureAlt = rs.getInt("pressureAlt");
                     metarValid = true;
                 } else {
                     metarValid = false;
                 }
-                
-                query.close();
             } catch (SQLException e2) {
                 System.err.println("MetarRefresh::Select error " + e2.getMessage());
             } finally {
-                if (rs != null) {
-                    try {
-                        rs.close();
-                    } catch (SQLException e) {
-                    }
-                }
-                if (query != null) {
-                    try {
-                        query.close();
-                    } catch (SQLException e) {
-                    }
-                }
+                closeResults(rs);
+                pool.release(con);
             }
         }
     }
-    
-    @Override
-    public void run() {
-        Statement query = null;
+
+    /*
+     * Read only the echoes detected since the last poll, and add them to the
+     * history of each track. The renderer paints them from there.
+     *
+     * The poll reads back over the overlap, so rows committed late with the
+     * same time are still seen, and the echoes already added are skipped.
+     * An echo whose track hasn't shown up yet holds the poll time back, so
+     * it is read again, for up to ECHO_WAIT.
+     */
+    private void pollEchoes() {
+        PooledConnection con = null;
         ResultSet rs = null;
         Track track;
-        int lowAltitude, highAltitude;
-        String queryString;
-        
-        while (EOF == false) {
-            lowAltitude = config.getIntegerSetting(Config.DISP_INSTRM_LOW) * 100;
-            highAltitude = config.getIntegerSetting(Config.DISP_INSTRM_HIGH) * 100;
-            
-            lowAltitude -= 1000;    // account for pressure altitude
-            
-            //
-            // We assume that one or more radars are populating
-            // the database. Thus, the ACID will appear more than
-            // once, and may have different track quality values,
-            // so pick the greatest track quality.
-            //
-            queryString = String.format("SELECT * FROM adsb.target WHERE (acid,quality) "
-                    + "IN (SELECT acid,MAX(quality) FROM adsb.target GROUP BY acid) "
-                    + "HAVING altitude >= %d && altitude <= %d",
-                    lowAltitude,
-                    highAltitude);
+        long now = System.currentTimeMillis();
+        long newest = echoTime;
+        long waiting = Long.MAX_VALUE;
 
-            try {
-                query = db.createStatement();
-                rs = query.executeQuery(queryString);
-                long utcnow = System.currentTimeMillis();
-
-                while (rs.next()) {
-                    String acid = rs.getString("acid");
-                    long utcupdate = rs.getLong("utcupdate");
-
-                    if ((utcnow - utcupdate) < (config.getIntegerSetting(Config.DISP_INSTRM_DIM) * 1000L)) {
-                        if (!process.hasTrack(acid)) {
-                            track = new Track(acid, config);
-                            process.addTrack(acid, track);
-                        } else {
-                            track = process.getTrack(acid);
-                        }
-
-                        track.setUpdatedTime(utcupdate);
-                        
-                        int alt = rs.getInt("altitude");
-                        track.setAltitude(alt);
-                        
-                        if ((alt < 36000) && (metarValid == true)) {
-                            track.setAMSLAltitude(alt - pressureAlt);
-                        } else {
-                            track.setAMSLAltitudeZero();
-                        }
-                        
-                        track.setGroundSpeed(rs.getFloat("groundSpeed"));
-                        track.setGroundTrack(rs.getFloat("groundTrack"));
-                        track.setComputedGroundSpeed(rs.getFloat("gsComputed"));
-                        track.setComputedGroundTrack(rs.getFloat("gtComputed"));
-                        track.setCallsign(rs.getString("callsign"));
-                        track.setPosition(rs.getFloat("latitude"), rs.getFloat("longitude"), utcupdate);
-                        track.setVerticalRateAndTrend(rs.getInt("verticalRate"), rs.getInt("verticalTrend"));
-
-                        int val = rs.getInt("squawk");  // returns 0 on SQL null
-
-                        if (val != 0) {
-                            if (val < 100) {
-                                track.setSquawk("00" + String.valueOf(val));
-                            } else if (val < 1000) {
-                                track.setSquawk("0" + String.valueOf(val));
-                            } else {
-                                track.setSquawk(String.valueOf(val));
-                            }
-                        } else {
-                            track.setSquawk("0000");
-                        }
-
-                        track.setAlert(rs.getBoolean("alert"));
-                        track.setEmergency(rs.getBoolean("emergency"));
-                        track.setSPI(rs.getBoolean("spi"));
-                        track.setIsOnGround(rs.getBoolean("onground"));
-                        track.addSiteID(rs.getString("radar_id"));
-
-                        process.replaceTrack(acid, track);
-                    }
+        try {
+            con = pool.getConnection();
+            PreparedStatement query = con.prepare(ECHO_CHANGED);
+            query.setLong(1, echoTime - OVERLAP);
+            rs = query.executeQuery();
+
+            while (rs.next()) {
+                long utcdetect = rs.getLong("utcdetect");
+                String acid = rs.getString("acid");
+                String key = acid + ":" + utcdetect;
+
+                if (echoesRead.containsKey(key)) {
+                    continue;
                 }
 
-                query.close();
-            } catch (SQLException e1) {
-                // database probably locked
-            } finally {
-                if (rs != null) {
-                    try {
-                        rs.close();
-                    } catch (SQLException e) {
+                track = process.getTrack(acid);
+
+                if (track == null) {
+                    if ((now - utcdetect) < ECHO_WAIT) {
+                        waiting = Math.min(waiting, utcdetect);
                     }
+
+                    continue;
                 }
-                if (query != null) {
-                    try {
-                        query.close();
-                    } catch (SQLException e) {
-                    }
+
+                echoesRead.put(key, utcdetect);
+                newest = Math.max(newest, utcdetect);
+
+                float lat = rs.getFloat("latitude");
+                float lon = rs.getFloat("longitude");
+
+                if (lat != 0.0F && lon != 0.0F) {
+                    track.getEchoHistory().addEcho(lat, lon,
+                            rs.getInt("altitude"),
+                            rs.getInt("verticalTrend"),
+                            utcdetect);
                 }
             }
 
-            for (Track trk : process.getTrackListWithPositions()) {
-                if (trk.getRegistration().isEmpty()) {
-                    queryString = String.format("SELECT acft_reg FROM modestable WHERE acid='%s'",
-                            trk.getAcid());
-
-                    try {
-                        query = db.createStatement();
-                        rs = query.executeQuery(queryString);
-
-                        if (rs.next()) {
-                            String tmp = rs.getString("acft_reg");
-
-                            try {
-                                if (tmp != null) {
-                                    trk.setRegistration(tmp);
-                                }
-                            } catch (Exception e8) {
-                            }
-                        }
-
-                        query.close();
-                    } catch (SQLException e1) {
-                        // database locked probably
-                    } finally {
-                        if (rs != null) {
-                            try {
-                                rs.close();
-                            } catch (SQLException e) {
-                            }
-                        }
-                        if (query != null) {
-                            try {
-                                query.close();
-                            } catch (SQLException e) {
-                            }
-                        }
-                    }
+            echoTime = Math.max(echoTime, Math.min(newest, waiting));
+        } catch (SQLException e1) {
+            // database probably locked
+        } finally {
+            closeResults(rs);
+            pool.release(con);
+        }
+
+        /*
+         * Forget the echoes before the overlap, they won't be read again
+         */
+        for (Iterator<Long> it = echoesRead.values().iterator(); it.hasNext();) {
+            if (it.next() < (echoTime - OVERLAP)) {
+                it.remove();
+            }
+        }
+    }
+
+    /*
+     * Decode one target row into a target report.
+     *
+     * On a full poll the database has already picked the best track quality
+     * for each ACID, so the report is marked resolved. On an incremental poll
+     * we see the rows of every radar, and ProcessTracks picks the best one.
+     */
+    private TrackUpdate decodeTarget(ResultSet rs, long utcnow, boolean full) throws SQLException {
+        TrackUpdate u;
+        long utcupdate = rs.getLong("utcupdate");
+
+        if (utcupdate > targetTime) {
+            targetTime = utcupdate;
+        }
+
+        if ((utcnow - utcupdate) >= (config.getIntegerSetting(Config.DISP_INSTRM_DIM) * 1000L)) {
+            return (TrackUpdate) null;
+        }
+
+        u = new TrackUpdate(rs.getString("acid"));
+        u.site = rs.getString("radar_id");
+
+        if (u.site == null) {
+            u.site = "";
+        }
+
+        u.quality = rs.getInt("quality");
+        u.resolved = full;
+        u.utcupdate = utcupdate;
+
+        int alt = rs.getInt("altitude");
+        u.altitude = alt;
+
+        if ((alt < 36000) && (metarValid == true)) {
+            u.amslAltitude = alt - pressureAlt;
+        }
+
+        u.groundSpeed = rs.getFloat("groundSpeed");
+        u.groundTrack = rs.getFloat("groundTrack");
+        u.computedGroundSpeed = rs.getFloat("gsComputed");
+        u.computedGroundTrack = rs.getFloat("gtComputed");
+        u.callsign = rs.getString("callsign");
+
+        if (u.callsign == null) {
+            u.callsign = "";
+        }
+
+        u.latitude = rs.getFloat("latitude");
+        u.longitude = rs.getFloat("longitude");
+        u.verticalRate = rs.getInt("verticalRate");
+        u.verticalTrend = rs.getInt("verticalTrend");
+        u.squawk = rs.getInt("squawk");  // returns 0 on SQL null
+        u.alert = rs.getBoolean("alert");
+        u.emergency = rs.getBoolean("emergency");
+        u.spi = rs.getBoolean("spi");
+        u.onGround = rs.getBoolean("onground");
+
+        return u;
+    }
+
+    /*
+     * Every so often read the whole table, so that targets deleted from the
+     * database are also deleted here. Otherwise only read the rows that
+     * changed since the last poll. Go back a little, in case a radar commits
+     * a little later than another one.
+     */
+    private void pollTargets() {
+        PooledConnection con = null;
+        ResultSet rs = null;
+        PreparedStatement query;
+        Set<String> present = new HashSet<>();
+        List<TrackUpdate> updates = new ArrayList<>();
+        TrackUpdate update;
+        boolean full;
+
+        long utcnow = System.currentTimeMillis();
+
+        full = (config.getDatabaseIncremental() == false) || (utcnow >= resyncTime);
+
+        try {
+            con = pool.getConnection();
+
+            if (full) {
+                query = con.prepare(TARGET_ALL);
+            } else {
+                query = con.prepare(TARGET_CHANGED);
+                query.setLong(1, targetTime - OVERLAP);
+            }
+
+            rs = query.executeQuery();
+
+            while (rs.next()) {
+                if (full) {
+                    present.add(rs.getString("acid"));
+                }
+
+                update = decodeTarget(rs, utcnow, full);
+
+                if (update != null) {
+                    updates.add(update);
                 }
             }
+        } catch (SQLException e1) {
+            // database probably locked
+            return;
+        } finally {
+            closeResults(rs);
+            pool.release(con);
+        }
+
+        process.updateTracks(updates);
+
+        if (full) {
+            resyncTime = utcnow + RESYNC;
 
-            //
-            // Altitude window may have changed, so drop all Tracks
-            // outside of the window the user has selected.
-            //
-            for (Track trk : process.getTrackListWithPositions()) {
-                int alt = trk.getAltitude();
-                String ac = trk.getAcid();
-                
-                if ((alt < lowAltitude) || (alt > highAltitude)) {
-                    process.removeTrack(ac);
+            for (Track trk : process.getTrackList()) {
+                if (!present.contains(trk.getAcid())) {
+                    process.removeTrack(trk.getAcid());
                 }
             }
-            
-            /*
-             * Take a nap
-             */
 
-            try {
-                Thread.sleep(1000L);    // @ 1 second nap, no need to hammer database
-            } catch (InterruptedException e3) {
+            process.publish();
+        }
+    }
+
+    /*
+     * The database is read in the ingest phase, on the scheduler thread, so
+     * the tracks are updated there like any other source.
+     */
+    class DatabasePoll extends TickStage {
+
+        DatabasePoll() {
+            super("database", TickScheduler.PHASE_INGEST, (int) (RATE2 / TickScheduler.TICK));
+        }
+
+        @Override
+        public void begin(long now) {
+            pollTargets();
+            pollEchoes();
+
+            if (registrations != null) {
+                registrations.enrich(process.getTrackListWithPositions());
             }
         }
     }
-}
\ No newline at end of file
+}
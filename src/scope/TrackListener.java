@@ -0,0 +1,19 @@
+package scope;
+
+/*
+ * Told of the changes to the tracks, once per tick at most.
+ *
+ * The calls are made on the scheduler thread after the tracks are updated,
+ * expired and checked for conflicts, so a listener must be quick, and hand
+ * any Swing work to the Swing thread.
+ */
+public interface TrackListener {
+
+    /**
+     * Called with the changes made since the last call. It is not called
+     * when nothing changed.
+     *
+     * @param changes the TrackChanges representing the tracks that changed
+     */
+    void tracksChanged(TrackChanges changes);
+}
@@ -0,0 +1,129 @@
+package scope;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * An unchanging copy of the track table, as it was at the end of an update.
+ *
+ * ProcessTracks makes a new one each time the table changes, and readers
+ * share it without locking or copying. The version goes up by one with each
+ * snapshot, so a reader can tell when nothing has changed since it last
+ * looked.
+ *
+ * The Track objects themselves are shared, not copied. The numbers the scans
+ * need are also copied into dense arrays, in the same order as the tracks
+ * with positions, so a scan can run over them without touching the Track
+ * objects. The arrays must not be changed.
+ */
+public final class TrackSnapshot {
+
+    private final long version;
+    private final List<Track> tracks;
+    private final List<Track> tracksWithPositions;
+    private final int count;
+    private final double[] latitude;
+    private final double[] longitude;
+    private final int[] altitude;
+    private final float[] groundSpeed;
+    private final float[] groundTrack;
+    private final int[] verticalRate;
+    private final long[] updatedPosTime;
+
+    TrackSnapshot(long v, Track[] all, Track[] positions, double[] lat, double[] lon,
+            int[] alt, float[] gs, float[] gt, int[] vr, long[] posTime) {
+        version = v;
+        count = positions.length;
+        latitude = lat;
+        longitude = lon;
+        altitude = alt;
+        groundSpeed = gs;
+        groundTrack = gt;
+        verticalRate = vr;
+        updatedPosTime = posTime;
+        tracks = Collections.unmodifiableList(Arrays.asList(all));
+        tracksWithPositions = Collections.unmodifiableList(Arrays.asList(positions));
+    }
+
+    /**
+     * Method to return the snapshot version
+     *
+     * @return a long representing the version, higher is newer
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Method to return all of the tracks
+     *
+     * @return an unmodifiable List representing all tracks
+     */
+    public List<Track> getTracks() {
+        return tracks;
+    }
+
+    /**
+     * Method to return the tracks that have a non-zero position
+     *
+     * @return an unmodifiable List representing the tracks with positions
+     */
+    public List<Track> getTracksWithPositions() {
+        return tracksWithPositions;
+    }
+
+    /**
+     * Method to return the number of tracks with positions, which is how
+     * much of each column array is used
+     *
+     * @return an integer representing the tracks with positions
+     */
+    public int getPositionCount() {
+        return count;
+    }
+
+    public double[] getLatitudes() {
+        return latitude;
+    }
+
+    public double[] getLongitudes() {
+        return longitude;
+    }
+
+    /**
+     * Method to return the altitude column
+     *
+     * @return an int array representing the altitudes, -9999 if unknown
+     */
+    public int[] getAltitudes() {
+        return altitude;
+    }
+
+    /**
+     * Method to return the ground speed column. It is the computed speed
+     * when the track doesn't send one.
+     *
+     * @return a float array representing the speeds in knots
+     */
+    public float[] getGroundSpeeds() {
+        return groundSpeed;
+    }
+
+    public float[] getGroundTracks() {
+        return groundTrack;
+    }
+
+    /**
+     * Method to return the vertical rate column
+     *
+     * @return an int array representing the vertical rates in feet per minute
+     */
+    public int[] getVerticalRates() {
+        return verticalRate;
+    }
+
+    public long[] getUpdatedPosTimes() {
+        return updatedPosTime;
+    }
+}
@@ -0,0 +1,30 @@
+package scope;
+
+/*
+ * A source of target reports.
+ *
+ * A source decodes its input into batches of TrackUpdate, and hands each
+ * batch to ProcessTracks. The display doesn't care where the reports came
+ * from, so it can be fed from the database, a recorded file, or straight
+ * from a decoder.
+ */
+public interface TrackSource {
+
+    /**
+     * Start reading target reports
+     */
+    public void start();
+
+    /**
+     * Stop reading target reports, and release any resources
+     */
+    public void close();
+
+    /**
+     * Method to tell whether this source fills the track echo history itself
+     *
+     * @return a boolean Representing true if the source provides echoes, or
+     * false if the echoes should be made from the track positions.
+     */
+    public boolean hasEchoHistory();
+}
@@ -0,0 +1,126 @@
+package scope;
+
+/*
+ * The position and motion of a track, as it was after one update.
+ *
+ * The Track makes a new one for each update that changes any of these
+ * values, and swaps it in through one volatile reference. A reader that
+ * takes the state once sees a position, altitude and vector that all came
+ * from the same update, without any locking.
+ *
+ * It is never changed after it is made.
+ */
+public final class TrackState {
+
+    /*
+     * Some planes don't ever send a velocity message, so assume the worst
+     */
+    public static final TrackState EMPTY = new TrackState(0.0, 0.0, -9999, 0,
+            0.0, 0.0, 0.0, 0.0, true, 0, 0, 0L);
+    //
+    private final double latitude;
+    private final double longitude;
+    private final int altitude;                 // -9999 if unknown
+    private final int amslAltitude;             // 0 if unknown
+    private final double groundSpeed;
+    private final double groundTrack;
+    private final double computedGroundSpeed;   // Some planes don't send speed
+    private final double computedGroundTrack;   // Some planes don't send heading
+    private final boolean useComputed;
+    private final int verticalRate;
+    private final int verticalTrend;
+    private final long updatedPosTime;
+
+    TrackState(double lat, double lon, int alt, int amsl, double gs, double gt,
+            double cgs, double cgt, boolean computed, int vr, int vt, long posTime) {
+        latitude = lat;
+        longitude = lon;
+        altitude = alt;
+        amslAltitude = amsl;
+        groundSpeed = gs;
+        groundTrack = gt;
+        computedGroundSpeed = cgs;
+        computedGroundTrack = cgt;
+        useComputed = computed;
+        verticalRate = vr;
+        verticalTrend = vt;
+        updatedPosTime = posTime;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public LatLon getPosition() {
+        return new LatLon(latitude, longitude);
+    }
+
+    /**
+     * Method to return the track altitude in feet
+     *
+     * @return an integer representing the altitude, -9999 if unknown
+     */
+    public int getAltitude() {
+        return altitude;
+    }
+
+    public int getAMSLAltitude() {
+        return amslAltitude;
+    }
+
+    public double getGroundSpeed() {
+        return groundSpeed;
+    }
+
+    public double getGroundTrack() {
+        return groundTrack;
+    }
+
+    public double getComputedGroundSpeed() {
+        return computedGroundSpeed;
+    }
+
+    public double getComputedGroundTrack() {
+        return computedGroundTrack;
+    }
+
+    public boolean getUseComputed() {
+        return useComputed;
+    }
+
+    /**
+     * Method to return the speed to show, which is the computed speed when
+     * the track doesn't send one
+     *
+     * @return a double representing the speed in knots
+     */
+    public double getSpeed() {
+        return useComputed ? computedGroundSpeed : groundSpeed;
+    }
+
+    /**
+     * Method to return the track over the ground to show, which is the
+     * computed track when the track doesn't send one
+     *
+     * @return a double representing the track in degrees
+     */
+    public double getCourse() {
+        return useComputed ? computedGroundTrack : groundTrack;
+    }
+
+    public int getVerticalRate() {
+        return verticalRate;
+    }
+
+    public int getVerticalTrend() {
+        return verticalTrend;
+    }
+
+    public long getUpdatedPosTime() {
+        return updatedPosTime;
+    }
+}
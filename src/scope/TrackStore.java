@@ -0,0 +1,285 @@
+package scope;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * The track table, keyed by the 24-bit ICAO address as an int.
+ *
+ * An open-addressing hash with linear probing, kept at most half full.
+ * Removal shifts the following entries back, so there are no tombstones.
+ * The hex acid is only kept in the Track, for display.
+ *
+ * An acid that isn't six hex digits still gets a track. It is given the
+ * next key of a range of its own, remembered for as long as the program
+ * runs. If that range is used up, the reports are dropped, and counted.
+ *
+ * The tracks are changed on the scheduler thread, but looked up from the
+ * Swing and lookup threads too, so the methods are synchronized. The lock
+ * is almost never contended.
+ */
+public final class TrackStore {
+
+    public static final int NO_KEY = -1;
+    private static final int NON_ICAO = 1 << 24;        // '~' addresses, TIS-B and the like
+    private static final int OTHER = 1 << 25;           // acids that aren't hex addresses
+    private static final int MAX_OTHER = 1 << 16;
+    //
+    private static final ConcurrentHashMap<String, Integer> otherKeys = new ConcurrentHashMap<>();
+    private static final AtomicInteger nextOther = new AtomicInteger();
+    private static final AtomicInteger dropped = new AtomicInteger();
+    //
+    private int[] keys;
+    private Track[] values;
+    private int mask;
+    private int size;
+
+    public TrackStore() {
+        keys = new int[256];
+        values = new Track[256];
+        Arrays.fill(keys, NO_KEY);
+        mask = keys.length - 1;
+        size = 0;
+    }
+
+    /**
+     * Method to turn the acid into a key. A hex address is its own key, and
+     * any other acid is given one of its own.
+     *
+     * @param acid a String representing the aircraft ID
+     * @return an integer representing the key, or NO_KEY if there is no acid
+     * or no keys are left for it
+     */
+    public static int toKey(String acid) {
+        int key = toAddress(acid);
+
+        if (key != NO_KEY || acid == null || acid.isEmpty()) {
+            return key;
+        }
+
+        Integer other = otherKeys.get(acid);
+
+        if (other != null) {
+            return other;
+        }
+
+        if (nextOther.get() >= MAX_OTHER) {
+            int n = dropped.incrementAndGet();
+
+            if (n == 1 || n % 1000 == 0) {
+                System.err.println("TrackStore::toKey no keys left for acid " + acid + ", " + n + " reports dropped");
+            }
+
+            return NO_KEY;
+        }
+
+        return otherKeys.computeIfAbsent(acid, a -> OTHER | nextOther.getAndIncrement());
+    }
+
+    /**
+     * Method to turn the hex acid into a key. A leading '~' marks an address
+     * that is not an ICAO address, and is kept apart from them.
+     *
+     * @param acid a String representing the aircraft ID in hex
+     * @return an integer representing the key, or NO_KEY if it isn't hex
+     */
+    public static int toAddress(String acid) {
+        if (acid == null) {
+            return NO_KEY;
+        }
+
+        int start = 0;
+        int key = 0;
+        int len = acid.length();
+
+        if (len > 0 && acid.charAt(0) == '~') {
+            start = 1;
+            key = NON_ICAO;
+        }
+
+        if (len - start != 6) {
+            return NO_KEY;
+        }
+
+        for (int i = start; i < len; i++) {
+            int digit = Character.digit(acid.charAt(i), 16);
+
+            if (digit < 0) {
+                return NO_KEY;
+            }
+
+            key |= digit << ((len - 1 - i) * 4);
+        }
+
+        return key;
+    }
+
+    /**
+     * Method to return the count of reports dropped for want of a key
+     *
+     * @return an integer representing the reports dropped
+     */
+    public static int getDropped() {
+        return dropped.get();
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+
+        return h ^ (h >>> 16);
+    }
+
+    private int slot(int key) {
+        int i = mix(key) & mask;
+
+        while (keys[i] != NO_KEY && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+
+        return i;
+    }
+
+    public synchronized Track get(int key) {
+        if (key == NO_KEY) {
+            return null;
+        }
+
+        return values[slot(key)];
+    }
+
+    public synchronized boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Method to return the track, making a new one if there isn't one, in a
+     * single probe of the table.
+     *
+     * @param key an integer representing the track key
+     * @param acid a String representing the aircraft ID, for a new track
+     * @param c the Config given to a new track
+     * @return the Track, or null if the key is NO_KEY
+     */
+    public synchronized Track upsert(int key, String acid, Config c) {
+        if (key == NO_KEY) {
+            return null;
+        }
+
+        int i = slot(key);
+
+        if (values[i] != null) {
+            return values[i];
+        }
+
+        Track track = new Track(acid, c);
+
+        keys[i] = key;
+        values[i] = track;
+
+        if (++size * 2 > keys.length) {
+            resize();
+        }
+
+        return track;
+    }
+
+    public synchronized Track put(int key, Track track) {
+        if (key == NO_KEY) {
+            return null;
+        }
+
+        int i = slot(key);
+        Track old = values[i];
+
+        keys[i] = key;
+        values[i] = track;
+
+        if (old == null && ++size * 2 > keys.length) {
+            resize();
+        }
+
+        return old;
+    }
+
+    public synchronized Track remove(int key) {
+        if (key == NO_KEY) {
+            return null;
+        }
+
+        int i = slot(key);
+        Track old = values[i];
+
+        if (old == null) {
+            return null;
+        }
+
+        /*
+         * Shift back the entries that probed past this slot
+         */
+        int j = i;
+
+        while (true) {
+            j = (j + 1) & mask;
+
+            if (keys[j] == NO_KEY) {
+                break;
+            }
+
+            int home = mix(keys[j]) & mask;
+
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+
+        keys[i] = NO_KEY;
+        values[i] = null;
+        size--;
+
+        return old;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Method to return all of the tracks
+     *
+     * @return an array representing the tracks, in no order
+     */
+    public synchronized Track[] values() {
+        Track[] result = new Track[size];
+        int n = 0;
+
+        for (Track track : values) {
+            if (track != null) {
+                result[n++] = track;
+            }
+        }
+
+        return result;
+    }
+
+    private void resize() {
+        int[] oldKeys = keys;
+        Track[] oldValues = values;
+
+        keys = new int[oldKeys.length * 2];
+        values = new Track[keys.length];
+        Arrays.fill(keys, NO_KEY);
+        mask = keys.length - 1;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != NO_KEY) {
+                int j = slot(oldKeys[i]);
+
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package scope;
+
+/*
+ * One target report, as decoded by a TrackSource.
+ *
+ * Fields the source didn't receive are left at their defaults. The Track
+ * setters ignore those, so a partial report never blanks out good data.
+ */
+public final class TrackUpdate {
+
+    public String acid;
+    public int icao;                    // TrackStore key of the acid
+    public String site;                 // radar ID
+    public int quality;
+    public boolean resolved;            // best quality already picked by source
+    public long utcupdate;
+    //
+    public int altitude;                // -9999 if unknown
+    public int amslAltitude;            // 0 if unknown
+    public double groundSpeed;
+    public double groundTrack;
+    public double computedGroundSpeed;
+    public double computedGroundTrack;
+    public String callsign;
+    public double latitude;             // 0.0 if unknown
+    public double longitude;            // 0.0 if unknown
+    public int verticalRate;
+    public int verticalTrend;
+    public int squawk;                  // 0 if unknown
+    //
+    public boolean alert;
+    public boolean emergency;
+    public boolean spi;
+    public boolean onGround;
+
+    /**
+     * Create an empty report for the given Aircraft ID
+     *
+     * @param a a String representing the Aircraft ID
+     */
+    public TrackUpdate(String a) {
+        acid = a;
+        icao = TrackStore.toKey(a);
+        site = "";
+        quality = 0;
+        resolved = false;
+        utcupdate = 0L;
+        altitude = -9999;
+        amslAltitude = 0;
+        groundSpeed = 0.0;
+        groundTrack = 0.0;
+        computedGroundSpeed = 0.0;
+        computedGroundTrack = 0.0;
+        callsign = "";
+        latitude = 0.0;
+        longitude = 0.0;
+        verticalRate = 0;
+        verticalTrend = 0;
+        squawk = 0;
+        alert = emergency = spi = onGround = false;
+    }
+
+    /**
+     * Create a copy of the given report
+     *
+     * @param u a TrackUpdate to copy
+     */
+    public TrackUpdate(TrackUpdate u) {
+        acid = u.acid;
+        icao = u.icao;
+        site = u.site;
+        quality = u.quality;
+        resolved = u.resolved;
+        utcupdate = u.utcupdate;
+        altitude = u.altitude;
+        amslAltitude = u.amslAltitude;
+        groundSpeed = u.groundSpeed;
+        groundTrack = u.groundTrack;
+        computedGroundSpeed = u.computedGroundSpeed;
+        computedGroundTrack = u.computedGroundTrack;
+        callsign = u.callsign;
+        latitude = u.latitude;
+        longitude = u.longitude;
+        verticalRate = u.verticalRate;
+        verticalTrend = u.verticalTrend;
+        squawk = u.squawk;
+        alert = u.alert;
+        emergency = u.emergency;
+        spi = u.spi;
+        onGround = u.onGround;
+    }
+}